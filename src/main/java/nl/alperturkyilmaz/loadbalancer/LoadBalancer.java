@@ -1,27 +1,61 @@
 package nl.alperturkyilmaz.loadbalancer;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+import nl.alperturkyilmaz.loadbalancer.event.EventRingBuffer;
+import nl.alperturkyilmaz.loadbalancer.event.LoadBalancerEventListener;
+import nl.alperturkyilmaz.loadbalancer.event.LoadBalancerEventType;
+import nl.alperturkyilmaz.loadbalancer.execution.Deadline;
+import nl.alperturkyilmaz.loadbalancer.execution.InvocationExecutor;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.HeartbeatService;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.HeartbeatSubscription;
 import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatPolicy;
 import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatMonitorable;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.IndexedInvocationPolicy;
 import nl.alperturkyilmaz.loadbalancer.invocation.policy.InvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.InvocationPolicyAdapter;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.ProviderSnapshot;
 import nl.alperturkyilmaz.loadbalancer.invocation.policy.RandomInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.SlotState;
+import nl.alperturkyilmaz.loadbalancer.priority.PriorityLanes;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
 import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+import nl.alperturkyilmaz.loadbalancer.ratelimit.TokenBucket;
+import nl.alperturkyilmaz.loadbalancer.subset.Subsetting;
 
 public class LoadBalancer implements HeartbeatMonitorable {
 
 	public static int DEFAULT_HEARTBEAT_CONTROL_PERIOD = 10;
 	public static int DEFAULT_MAXIMUM_REGISTERED_PROVIDERS = 10;
 	public static int INFINITE_PARALLEL_REQUESTS = 0;
+	public static int DEFAULT_TIMEOUT_THRESHOLD = 3;
+
+	/*
+	 * Start time of a heartbeat check that returned
+	 */
+	private static final long CHECK_RETURNED = Long.MIN_VALUE;
 
 	/*
 	 * Maximum number of providers that can register to the Load Balancer
@@ -44,23 +78,62 @@ public class LoadBalancer implements HeartbeatMonitorable {
 	 */
 	private List<Provider> availableProviders = new ArrayList<>();
 
+	/*
+	 * Size of availableProviders, readable on the request path without locking
+	 */
+	private volatile int availableProviderCount;
+
+	/*
+	 * Copy of availableProviders that the request path reads without locking,
+	 * replaced whenever availableProviders changes
+	 */
+	private volatile ProviderSnapshot providerSnapshot = ProviderSnapshot.EMPTY;
+
+	/*
+	 * Registry slot of every registered Provider, the index of its SlotState
+	 */
+	private Map<Provider, Integer> providerSlots = new ConcurrentHashMap<>();
+
+	/*
+	 * Registry slots in use, slots of unregistered Providers are reused
+	 */
+	private BitSet usedSlots = new BitSet();
+
+	/*
+	 * Requests in flight and the invocation policy state of the registry slots
+	 */
+	private SlotState slotState;
+
+	/*
+	 * Selects the Providers this Load Balancer works with out of the registered
+	 * ones, null if it works with all of them
+	 */
+	private Subsetting subsetting;
+
+	/*
+	 * Current subset of the registered Providers, null without subsetting
+	 */
+	private volatile List<Provider> subset;
+
 	/*
 	 * List of unavailable providers (unhealthy & not serving)
 	 */
 	private List<Provider> unavailableProviders = new ArrayList<>();
 
 	/*
-	 * All registered providers
+	 * All registered providers, in registration order
 	 */
-	private HashMap<String, Provider> allProviders = new HashMap<>();
+	private LinkedHashMap<String, Provider> allProviders = new LinkedHashMap<>();
 
 	/*
 	 * InvocationPolicy is used in determining the next Provider which will handle
 	 * the request. An invocation policy can be of the type RandomInvocationPolicy
-	 * or RoundRobinInvocationPolicy. Default policy is RandomInvocationPolicy
+	 * or RoundRobinInvocationPolicy. Default policy is RandomInvocationPolicy.
+	 * Policies that only implement InvocationPolicy run through an
+	 * InvocationPolicyAdapter.
 	 * 
 	 */
-	private InvocationPolicy invocationPolicy;
+	private IndexedInvocationPolicy invocationPolicy;
 
 	/*
 	 * HeartbeatPolicy is used in checking the healthiness of the Providers. A
@@ -76,19 +149,103 @@ public class LoadBalancer implements HeartbeatMonitorable {
 	 */
 	private ScheduledExecutorService scheduler;
 
+	/*
+	 * Shared heartbeat scheduler used instead of an own one, null if not
+	 * configured
+	 */
+	private HeartbeatService heartbeatService;
+	private HeartbeatSubscription heartbeatSubscription;
+
 	/*
 	 * Statistical information. Number of active concurrent requests
 	 */
 	private AtomicInteger concurrentRequestCount = new AtomicInteger(0);
 
+	/*
+	 * Admission control and statistics by RequestPriority
+	 */
+	private PriorityLanes priorityLanes;
+
+	/*
+	 * Requests per second limit of the whole cluster, null if not limited
+	 */
+	private volatile TokenBucket clusterRateLimit;
+
+	/*
+	 * Requests per second limits of the Providers, Providers without a limit
+	 * have no entry
+	 */
+	private Map<Provider, TokenBucket> providerRateLimits = new ConcurrentHashMap<>();
+
+	/*
+	 * Limit applied to every registered Provider, null if not limited
+	 */
+	private double defaultProviderPermitsPerSecond;
+	private int defaultProviderBurst;
+
+	/*
+	 * Number of timed out requests of a Provider between two heartbeats after
+	 * which the Provider is reported unhealthy to the heartbeatPolicy. A
+	 * non-positive value ignores the timeouts.
+	 */
+	private int timeoutThreshold;
+
+	/*
+	 * Timed out requests of the Providers since their last heartbeat
+	 */
+	private Map<Provider, AtomicInteger> providerTimeouts = new ConcurrentHashMap<>();
+
+	/*
+	 * Time source of the rate limits and request durations, System.nanoTime()
+	 * unless the Load Balancer runs on a virtual clock (e.g. in a simulation)
+	 */
+	private LongSupplier nanoClock = System::nanoTime;
+
+	/*
+	 * Preallocated ring buffer that delivers request outcomes and provider state
+	 * changes to the registered listeners
+	 */
+	private EventRingBuffer eventRingBuffer;
+
+	/*
+	 * Executor of asynchronous invocations and heartbeat checks, null if the Load
+	 * Balancer only serves blocking get() calls on the caller threads
+	 */
+	private InvocationExecutor invocationExecutor;
+
+	/*
+	 * Heartbeat results of the current round when the checks are run in parallel
+	 * on the invocationExecutor
+	 */
+	private volatile Map<Provider, Boolean> heartbeatResults;
+
+	/*
+	 * Providers whose heartbeat check timed out and still occupies an invocation
+	 * thread, they fail without a new check until it returns
+	 */
+	private final Set<Provider> hungChecks = ConcurrentHashMap.newKeySet();
+
 	public static class Builder {
 		private int maxAllowedProviders = DEFAULT_MAXIMUM_REGISTERED_PROVIDERS;
 		private int heartbeatControlPeriod = DEFAULT_HEARTBEAT_CONTROL_PERIOD;
 		private int maximumNoOfParalelRequests = INFINITE_PARALLEL_REQUESTS;
 		
 		private List<Provider> providerList;
-		private InvocationPolicy invocationPolicy = new RandomInvocationPolicy();
+		private IndexedInvocationPolicy invocationPolicy = new RandomInvocationPolicy();
 		private HeartbeatPolicy heartbeatPolicy;
+		private int eventBufferSize = EventRingBuffer.DEFAULT_BUFFER_SIZE;
+		private List<LoadBalancerEventListener> eventListeners = new ArrayList<>();
+		private InvocationExecutor invocationExecutor;
+		private PriorityLanes priorityLanes = new PriorityLanes();
+		private TokenBucket clusterRateLimit;
+		private double providerPermitsPerSecond;
+		private int providerBurst;
+		private int timeoutThreshold = DEFAULT_TIMEOUT_THRESHOLD;
+		private LongSupplier nanoClock = System::nanoTime;
+		private Subsetting subsetting;
+		private HeartbeatService heartbeatService;
+		private boolean seeded;
+		private long seed;
 
 		public Builder maximumAllowedProviders(int maxAllowedProviders) {
 			if (maxAllowedProviders < 0) {
@@ -111,6 +268,16 @@ public class LoadBalancer implements HeartbeatMonitorable {
 		}
 
 		public Builder withInvocationPolicy(InvocationPolicy invocationPolicy) {
+			if (invocationPolicy != null) {
+				this.invocationPolicy = InvocationPolicyAdapter.adapt(invocationPolicy);
+			}
+			return this;
+		}
+
+		/*
+		 * Index based invocation policy, keeps get() allocation free
+		 */
+		public Builder withIndexedInvocationPolicy(IndexedInvocationPolicy invocationPolicy) {
 			if (invocationPolicy != null) {
 				this.invocationPolicy = invocationPolicy;
 			}
@@ -132,13 +299,167 @@ public class LoadBalancer implements HeartbeatMonitorable {
 			return this;
 		}
 
+		/*
+		 * Runs the heartbeatPolicy on a HeartbeatService, e.g.
+		 * HeartbeatService.shared(), instead of an own scheduler thread. Providers
+		 * shared with other Load Balancers on the service are checked once per
+		 * heartbeat.
+		 */
+		public Builder withHeartbeatService(HeartbeatService heartbeatService) {
+			if (heartbeatService != null) {
+				this.heartbeatService = heartbeatService;
+			}
+			return this;
+		}
+
+		public Builder withEventBufferSize(int eventBufferSize) {
+			if (eventBufferSize <= 0 || Integer.bitCount(eventBufferSize) != 1) {
+				throw new java.lang.IllegalArgumentException("Event buffer size must be a positive power of 2");
+			}
+			this.eventBufferSize = eventBufferSize;
+			return this;
+		}
+
+		public Builder withEventListener(LoadBalancerEventListener eventListener) {
+			if (eventListener != null) {
+				this.eventListeners.add(eventListener);
+			}
+			return this;
+		}
+
+		public Builder withInvocationExecutor(InvocationExecutor invocationExecutor) {
+			if (invocationExecutor != null) {
+				this.invocationExecutor = invocationExecutor;
+			}
+			return this;
+		}
+
+		/*
+		 * Reserves reservedShare (0..1) of the Cluster Capacity for the priority and
+		 * sets its weight for fair sharing while the cluster is contended
+		 */
+		public Builder withPriorityLane(RequestPriority priority, double reservedShare, int weight) {
+			priorityLanes.withLane(priority, reservedShare, weight);
+			return this;
+		}
+
+		/*
+		 * Limits the requests per second of the whole cluster
+		 */
+		public Builder withClusterRateLimit(double permitsPerSecond, int burst) {
+			this.clusterRateLimit = new TokenBucket(permitsPerSecond, burst);
+			return this;
+		}
+
+		/*
+		 * Limits the requests per second of every registered Provider. When a
+		 * Provider runs out of permits, the request goes to another Provider.
+		 */
+		public Builder withProviderRateLimit(double permitsPerSecond, int burst) {
+			if (!(permitsPerSecond > 0) || burst <= 0) {
+				throw new java.lang.IllegalArgumentException("Permits per second and burst must be positive");
+			}
+			this.providerPermitsPerSecond = permitsPerSecond;
+			this.providerBurst = burst;
+			return this;
+		}
+
+		/*
+		 * Number of timed out requests of a Provider between two heartbeats after
+		 * which its heartbeat fails, a non-positive value ignores the timeouts
+		 */
+		public Builder withTimeoutThreshold(int timeoutThreshold) {
+			this.timeoutThreshold = timeoutThreshold;
+			return this;
+		}
+
+		/*
+		 * Replaces System.nanoTime() as the time source of the rate limits and the
+		 * request durations
+		 */
+		public Builder withNanoClock(LongSupplier nanoClock) {
+			if (nanoClock != null) {
+				this.nanoClock = nanoClock;
+			}
+			return this;
+		}
+
+		/*
+		 * Works with a deterministic subset of subsetSize registered Providers
+		 * instead of all of them. Clients with consecutive clientIds get disjoint
+		 * subsets, see Subsetting.
+		 */
+		public Builder withSubsetting(int subsetSize, int clientId) {
+			this.subsetting = new Subsetting(subsetSize, clientId);
+			return this;
+		}
+
+		/*
+		 * Seeds the random choices of the invocation policy, the Load Balancer gets
+		 * a fresh policy from IndexedInvocationPolicy.copy(seed). Used by the
+		 * simulation so the same seed gives the same run.
+		 */
+		public Builder withSeed(long seed) {
+			this.seeded = true;
+			this.seed = seed;
+			return this;
+		}
+
+		public boolean hasHeartbeatPolicy() {
+			return heartbeatPolicy != null;
+		}
+
+		/*
+		 * Builder with the same configuration, changes to the copy do not affect
+		 * this builder. Rate limits, priority lanes and policies start with fresh
+		 * state.
+		 */
+		public Builder copy() {
+			Builder copy = new Builder();
+			copy.maxAllowedProviders = maxAllowedProviders;
+			copy.heartbeatControlPeriod = heartbeatControlPeriod;
+			copy.maximumNoOfParalelRequests = maximumNoOfParalelRequests;
+			copy.providerList = providerList != null ? new ArrayList<>(providerList) : null;
+			copy.invocationPolicy = invocationPolicy.copy();
+			copy.heartbeatPolicy = heartbeatPolicy != null ? heartbeatPolicy.copy() : null;
+			copy.eventBufferSize = eventBufferSize;
+			copy.eventListeners = new ArrayList<>(eventListeners);
+			copy.invocationExecutor = invocationExecutor;
+			copy.priorityLanes = priorityLanes.copy();
+			copy.clusterRateLimit = clusterRateLimit != null ? new TokenBucket(clusterRateLimit.getPermitsPerSecond(), clusterRateLimit.getBurst()) : null;
+			copy.providerPermitsPerSecond = providerPermitsPerSecond;
+			copy.providerBurst = providerBurst;
+			copy.timeoutThreshold = timeoutThreshold;
+			copy.nanoClock = nanoClock;
+			copy.subsetting = subsetting;
+			copy.heartbeatService = heartbeatService;
+			copy.seeded = seeded;
+			copy.seed = seed;
+			return copy;
+		}
+
 		public LoadBalancer build() {
 			LoadBalancer loadBalancer = new LoadBalancer();
 			loadBalancer.maximumRegisteredProviders = this.maxAllowedProviders;
-			loadBalancer.invocationPolicy = this.invocationPolicy;
+			loadBalancer.invocationPolicy = seeded ? invocationPolicy.copy(seed) : invocationPolicy;
 			loadBalancer.heartbeatPolicy = this.heartbeatPolicy;
 			loadBalancer.heartbeatControlPeriod = this.heartbeatControlPeriod;
 			loadBalancer.maximumNoOfParalelRequests = this.maximumNoOfParalelRequests;
+			loadBalancer.invocationExecutor = this.invocationExecutor;
+			loadBalancer.priorityLanes = this.priorityLanes.frozenCopy();
+			loadBalancer.clusterRateLimit = this.clusterRateLimit;
+			loadBalancer.defaultProviderPermitsPerSecond = this.providerPermitsPerSecond;
+			loadBalancer.defaultProviderBurst = this.providerBurst;
+			loadBalancer.timeoutThreshold = this.timeoutThreshold;
+			loadBalancer.nanoClock = this.nanoClock;
+			loadBalancer.subsetting = this.subsetting;
+			loadBalancer.heartbeatService = this.heartbeatService;
+			loadBalancer.slotState = new SlotState(this.maxAllowedProviders, loadBalancer.invocationPolicy.getLongFieldCount(),
+					loadBalancer.invocationPolicy.getDoubleFieldCount());
+			loadBalancer.eventRingBuffer = new EventRingBuffer(this.eventBufferSize);
+			for (LoadBalancerEventListener eventListener : eventListeners) {
+				loadBalancer.eventRingBuffer.addListener(eventListener);
+			}
 			loadBalancer.register(providerList);
 			loadBalancer.startHeartbeatScheduler();
 			return loadBalancer;
@@ -151,9 +472,94 @@ public class LoadBalancer implements HeartbeatMonitorable {
 	 * 
 	 */
 	private void startHeartbeatScheduler() {
-		if (heartbeatPolicy != null && scheduler == null) {
-			scheduler = Executors.newScheduledThreadPool(1);
-			scheduler.scheduleWithFixedDelay(() -> heartbeatPolicy.apply(this), 0, heartbeatControlPeriod, TimeUnit.SECONDS);
+		if (heartbeatPolicy != null && heartbeatService != null) {
+			heartbeatSubscription = heartbeatService.subscribe(this, heartbeatPolicy, Duration.ofSeconds(heartbeatControlPeriod));
+		} else if (heartbeatPolicy != null && scheduler == null) {
+			if (invocationExecutor != null) {
+				scheduler = Executors.newScheduledThreadPool(1, invocationExecutor.getThreadFactory());
+			} else {
+				scheduler = Executors.newScheduledThreadPool(1);
+			}
+			scheduler.scheduleWithFixedDelay(this::runHeartbeat, 0, heartbeatControlPeriod, TimeUnit.SECONDS);
+		}
+	}
+
+	/*
+	 * Applies the heartbeatPolicy. If an invocationExecutor is configured, all
+	 * Providers are checked in parallel on it first and the policy sees the
+	 * results of this round. A check that runs longer than
+	 * HeartbeatService.DEFAULT_CHECK_TIMEOUT_MILLIS fails, like on a
+	 * HeartbeatService.
+	 */
+	private void runHeartbeat() {
+		if (invocationExecutor == null) {
+			heartbeatPolicy.apply(this);
+			return;
+		}
+		Map<Provider, CompletableFuture<Boolean>> checks = new HashMap<>();
+		Map<Provider, AtomicLong> startTimes = new HashMap<>();
+		for (Provider provider : getProviders()) {
+			if (hungChecks.contains(provider)) {
+				continue;
+			}
+			AtomicLong started = new AtomicLong(0);
+			startTimes.put(provider, started);
+			checks.put(provider, CompletableFuture.supplyAsync(() -> {
+				started.set(System.nanoTime());
+				try {
+					return provider.check();
+				} finally {
+					started.set(CHECK_RETURNED);
+					hungChecks.remove(provider);
+				}
+			}, invocationExecutor));
+		}
+		Map<Provider, Boolean> results = new ConcurrentHashMap<>();
+		for (Provider provider : getProviders()) {
+			if (!checks.containsKey(provider)) {
+				results.put(provider, Boolean.FALSE);
+			}
+		}
+		for (Map.Entry<Provider, CompletableFuture<Boolean>> check : checks.entrySet()) {
+			try {
+				results.put(check.getKey(), awaitCheck(check.getKey(), check.getValue(), startTimes.get(check.getKey())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		heartbeatResults = results;
+		try {
+			heartbeatPolicy.apply(this);
+		} finally {
+			heartbeatResults = null;
+		}
+	}
+
+	/*
+	 * Waits for a heartbeat check, the timeout starts when the check starts
+	 * running so checks queued behind hung ones do not fail
+	 */
+	private Boolean awaitCheck(Provider provider, CompletableFuture<Boolean> check, AtomicLong started) throws InterruptedException {
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(HeartbeatService.DEFAULT_CHECK_TIMEOUT_MILLIS);
+		for (;;) {
+			long startedAt = started.get();
+			long waitNanos = startedAt == 0 || startedAt == CHECK_RETURNED ? timeoutNanos : startedAt + timeoutNanos - System.nanoTime();
+			if (waitNanos <= 0) {
+				hungChecks.add(provider);
+				if (started.get() == CHECK_RETURNED) {
+					// returned right after the timeout
+					hungChecks.remove(provider);
+				}
+				return Boolean.FALSE;
+			}
+			try {
+				return check.get(waitNanos, TimeUnit.NANOSECONDS);
+			} catch (ExecutionException e) {
+				return Boolean.FALSE;
+			} catch (TimeoutException e) {
+				// waits again with the time left since the check started
+			}
 		}
 	}
 
@@ -180,61 +586,594 @@ public class LoadBalancer implements HeartbeatMonitorable {
 			Iterator<Provider> iterator = providerList.iterator();
 			while (allProviders.size() < limit && iterator.hasNext()) {
 				Provider provider = iterator.next();
-				availableProviders.add(provider);
+				if (allProviders.containsKey(provider.getId())) {
+					continue;
+				}
+				int slot = usedSlots.nextClearBit(0);
+				usedSlots.set(slot);
+				slotState.clear(slot);
+				if (subsetting == null) {
+					availableProviders.add(provider);
+				}
+				providerSlots.put(provider, slot);
 				allProviders.put(provider.getId(), provider);
+				if (defaultProviderBurst > 0) {
+					providerRateLimits.put(provider, new TokenBucket(defaultProviderPermitsPerSecond, defaultProviderBurst));
+				}
+			}
+			if (subsetting != null) {
+				updateSubset();
+			} else {
+				availableProvidersChanged();
+			}
+		}
+	}
+
+	/*
+	 * Removes the Provider from the Load Balancer. Requests it is serving
+	 * complete normally.
+	 */
+	public boolean unregister(Provider provider) {
+		synchronized (availableProviders) {
+			if (allProviders.remove(provider.getId()) == null) {
+				return false;
+			}
+			synchronized (unavailableProviders) {
+				unavailableProviders.remove(provider);
+			}
+			availableProviders.remove(provider);
+			Integer slot = providerSlots.remove(provider);
+			if (slot != null) {
+				usedSlots.clear(slot);
+			}
+			providerRateLimits.remove(provider);
+			providerTimeouts.remove(provider);
+			if (subsetting != null) {
+				updateSubset();
+			} else {
+				availableProvidersChanged();
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Recomputes the subset and the available Providers in it, must be called
+	 * while holding the availableProviders lock. Excluded Providers that are not
+	 * members, e.g. replacements that failed as well, are appended so they are
+	 * still checked and the heartbeat policy can include them again.
+	 */
+	private void updateSubset() {
+		List<Provider> unavailable;
+		synchronized (unavailableProviders) {
+			unavailable = new ArrayList<>(unavailableProviders);
+		}
+		Set<Provider> excluded = new HashSet<>(unavailable);
+		List<Provider> members = subsetting.select(allProviders.values(), excluded);
+		availableProviders.clear();
+		for (Provider provider : members) {
+			if (!excluded.contains(provider)) {
+				availableProviders.add(provider);
+			}
+		}
+		Set<Provider> memberSet = new HashSet<>(members);
+		for (Provider provider : unavailable) {
+			if (!memberSet.contains(provider) && allProviders.containsKey(provider.getId())) {
+				members.add(provider);
 			}
 		}
+		subset = Collections.unmodifiableList(members);
+		availableProvidersChanged();
+	}
+
+	/*
+	 * Publishes a new providerSnapshot, must be called while holding the
+	 * availableProviders lock
+	 */
+	private void availableProvidersChanged() {
+		int size = availableProviders.size();
+		Provider[] providers = new Provider[size];
+		int[] slots = new int[size];
+		for (int i = 0; i < size; i++) {
+			providers[i] = availableProviders.get(i);
+			slots[i] = providerSlots.get(providers[i]);
+		}
+		providerSnapshot = new ProviderSnapshot(providers, slots);
+		availableProviderCount = size;
 	}
 
 	/*
-	 * Returns the unmodifiable collection of all providers.
+	 * Returns an unmodifiable copy of the providers the Load Balancer works with
+	 * and the heartbeat checks: all registered providers, or the subset of them
+	 * and the excluded ones when subsetting is enabled.
 	 */
 	public Collection<Provider> getProviders() {
-		return Collections.unmodifiableCollection(allProviders.values());
+		List<Provider> members = subset;
+		if (members != null) {
+			return members;
+		}
+		return getRegisteredProviders();
+	}
+
+	/*
+	 * Returns an unmodifiable copy of all registered providers, safe to iterate
+	 * while providers are registered concurrently.
+	 */
+	public Collection<Provider> getRegisteredProviders() {
+		synchronized (availableProviders) {
+			return Collections.unmodifiableList(new ArrayList<>(allProviders.values()));
+		}
 	}
 
 	/*
 	 * Cluster capacity limit check If maximumNoOfParalelRequests is set to a
 	 * positive value and number of active concurrent request count is above or
-	 * equal to the Cluster Capacity, returns true o.w false.
+	 * equal to the capacity the priority may use, returns true o.w false. If the
+	 * limit is not exceeded, a slot is reserved for the request in the same
+	 * atomic step, so concurrent callers can not exceed the Cluster Capacity
+	 * together.
 	 * 
 	 */
-	private boolean isClusterCapacityLimitExceeded() {
-		if (maximumNoOfParalelRequests <= INFINITE_PARALLEL_REQUESTS) {
-			return false;
+	private boolean isClusterCapacityLimitExceeded(RequestPriority priority) {
+		int currentClusterCapacity = PriorityLanes.UNLIMITED_CAPACITY;
+		if (maximumNoOfParalelRequests > INFINITE_PARALLEL_REQUESTS) {
+			currentClusterCapacity = maximumNoOfParalelRequests * availableProviderCount;
 		}
-		int currentClusterCapacity = 0;
-		synchronized (availableProviders) {
-			currentClusterCapacity = maximumNoOfParalelRequests * availableProviders.size();
+		return !priorityLanes.tryAdmit(priority, concurrentRequestCount, currentClusterCapacity);
+	}
+
+	/*
+	 * Releases the slot reserved by isClusterCapacityLimitExceeded
+	 */
+	private void releaseClusterCapacity(RequestPriority priority) {
+		concurrentRequestCount.decrementAndGet();
+		priorityLanes.release(priority);
+	}
+
+	/*
+	 * Releases the slot reserved by isClusterCapacityLimitExceeded for a request
+	 * that is not served after all, it is counted as shed
+	 */
+	private void rejectClusterCapacity(RequestPriority priority) {
+		concurrentRequestCount.decrementAndGet();
+		priorityLanes.reject(priority);
+	}
+
+	/*
+	 * Number of requests that can be started before the Cluster Capacity is
+	 * exceeded, Integer.MAX_VALUE if maximumNoOfParalelRequests is infinite and 0
+	 * if no Provider is available.
+	 */
+	public int getAvailableCapacity() {
+		if (availableProviderCount == 0) {
+			return 0;
 		}
-		return (concurrentRequestCount.get() >= currentClusterCapacity);
+		if (maximumNoOfParalelRequests <= INFINITE_PARALLEL_REQUESTS) {
+			return Integer.MAX_VALUE;
+		}
+		int currentClusterCapacity = maximumNoOfParalelRequests * availableProviderCount;
+		return Math.max(0, currentClusterCapacity - concurrentRequestCount.get());
+	}
+
+	/*
+	 * Number of Providers that currently serve requests
+	 */
+	public int getAvailableProviderCount() {
+		return availableProviderCount;
 	}
 
 	/*
 	 * 1- Checks if the Cluster Capacity is exceeded or not, if exceeded returns
 	 * null. 2- Gets an available Provider according to the invocationPolicy, 3- If
 	 * there an available(alive) provider is found, invokes the provider and returns
-	 * the response o.w. returns null.
+	 * the response o.w. returns null. Requests are served with NORMAL priority.
 	 */
 	public String get() {
+		return get(RequestPriority.NORMAL);
+	}
+
+	/*
+	 * Same as get(), near the Cluster Capacity the less critical requests are
+	 * shed first.
+	 */
+	public String get(RequestPriority priority) {
+		if (priority == null) {
+			throw new java.lang.IllegalArgumentException("Request priority can not be null");
+		}
 		String response = null;
 
-		if (isClusterCapacityLimitExceeded()) {
+		Provider nextProvider = select(priority);
+		if (nextProvider == null) {
 			return response;
 		}
 
-		Provider nextProvider = null;
+		long start = nanoClock.getAsLong();
+		boolean succeeded = false;
+		try {
+			response = nextProvider.get();
+			succeeded = true;
+		} finally {
+			complete(priority, nextProvider, nanoClock.getAsLong() - start, succeeded);
+		}
+		return response;
+	}
 
-		synchronized (availableProviders) {
-			nextProvider = invocationPolicy.apply(Collections.unmodifiableList(availableProviders));
+	/*
+	 * Same as get(), but the caller gets control back when the timeout expires.
+	 * Requires an invocationExecutor, see get(RequestPriority, Deadline).
+	 */
+	public String get(Duration timeout) {
+		return get(RequestPriority.NORMAL, Deadline.after(timeout));
+	}
+
+	public String get(Deadline deadline) {
+		return get(RequestPriority.NORMAL, deadline);
+	}
+
+	/*
+	 * Serves the request on the invocationExecutor and waits until the deadline.
+	 * When the deadline passes, the capacity slot is released immediately, the
+	 * Provider call is cancelled via Provider.cancel() and null is returned. A
+	 * request whose deadline passes before the invocation starts never reaches
+	 * the Provider. Timeouts count against the health of the Provider, see
+	 * Builder.withTimeoutThreshold(). The invocation holds an in flight permit of
+	 * the invocationExecutor until the Provider call returns, a request without a
+	 * free permit is rejected.
+	 */
+	public String get(RequestPriority priority, Deadline deadline) {
+		if (priority == null || deadline == null) {
+			throw new java.lang.IllegalArgumentException("Request priority and deadline can not be null");
+		}
+		if (invocationExecutor == null) {
+			throw new java.lang.IllegalStateException("No invocation executor configured, use Builder.withInvocationExecutor()");
+		}
+		if (deadline.isExpired()) {
+			eventRingBuffer.publish(LoadBalancerEventType.REQUEST_TIMED_OUT, null, 0);
+			return null;
 		}
 
-		if (nextProvider != null) {
-			concurrentRequestCount.incrementAndGet();
-			response = nextProvider.get();
-			concurrentRequestCount.decrementAndGet();
+		Provider nextProvider = select(priority);
+		if (nextProvider == null) {
+			return null;
 		}
-		return response;
+
+		TimedInvocation invocation = new TimedInvocation(nextProvider, priority, deadline);
+		// the in flight permit is held until the invocation thread is done with the Provider
+		CompletableFuture<Boolean> invoked = invocationExecutor.submit(() -> {
+			invocation.run();
+			return Boolean.TRUE;
+		});
+		if (invoked.isDone()) {
+			if (invoked.isCompletedExceptionally()) {
+				invocation.release();
+				invoked.join();
+			} else if (invoked.getNow(Boolean.TRUE) == null) {
+				// no in flight permit
+				invocation.reject();
+				eventRingBuffer.publish(LoadBalancerEventType.REQUEST_REJECTED, null, 0);
+				return null;
+			}
+		}
+		try {
+			return invocation.response.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			invocation.timeout();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			invocation.timeout();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new java.lang.IllegalStateException(cause);
+		}
+		return invocation.response.getNow(null);
+	}
+
+	/*
+	 * First half of get() for callers that invoke the Provider themselves, e.g.
+	 * asynchronous clients or the simulator. Reserves a capacity slot and selects
+	 * the Provider of the request. Returns null, with the slot released, if the
+	 * request can not be served. Every selected Provider must be followed by
+	 * exactly one complete() call.
+	 */
+	public Provider select(RequestPriority priority) {
+		if (isClusterCapacityLimitExceeded(priority)) {
+			eventRingBuffer.publish(LoadBalancerEventType.REQUEST_REJECTED, null, 0);
+			return null;
+		}
+
+		TokenBucket clusterLimit = clusterRateLimit;
+		if (clusterLimit != null && !clusterLimit.tryAcquire(nanoClock.getAsLong())) {
+			rejectClusterCapacity(priority);
+			eventRingBuffer.publish(LoadBalancerEventType.REQUEST_RATE_LIMITED, null, 0);
+			return null;
+		}
+
+		ProviderSnapshot providers = providerSnapshot;
+		int index = invocationPolicy.select(providers, slotState);
+		boolean noProvider = index == IndexedInvocationPolicy.NO_PROVIDER;
+		if (!noProvider && !tryAcquireProviderPermit(providers.get(index))) {
+			index = selectWithinRateLimit(providers, index);
+		}
+		if (index == IndexedInvocationPolicy.NO_PROVIDER) {
+			if (clusterLimit != null) {
+				// the request did not reach a Provider, its cluster token is not used
+				clusterLimit.refund();
+			}
+			rejectClusterCapacity(priority);
+			eventRingBuffer.publish(noProvider ? LoadBalancerEventType.REQUEST_NO_PROVIDER : LoadBalancerEventType.REQUEST_RATE_LIMITED, null, 0);
+			return null;
+		}
+
+		Provider nextProvider = providers.get(index);
+		int slot = providers.slot(index);
+		slotState.incrementInFlight(slot);
+		if (providerSnapshot != providers && !Integer.valueOf(slot).equals(providerSlots.get(nextProvider))) {
+			// unregistered meanwhile, complete() will not release the slot
+			slotState.decrementInFlight(slot);
+		}
+		return nextProvider;
+	}
+
+	/*
+	 * Second half of get(), releases the capacity slot reserved by select() and
+	 * publishes the outcome of the request
+	 */
+	public void complete(RequestPriority priority, Provider provider, long durationNanos, boolean succeeded) {
+		releaseClusterCapacity(priority);
+		int slot = releaseSlot(provider);
+		if (slot >= 0) {
+			invocationPolicy.onComplete(slot, slotState, durationNanos, succeeded);
+		}
+		eventRingBuffer.publish(succeeded ? LoadBalancerEventType.REQUEST_COMPLETED : LoadBalancerEventType.REQUEST_FAILED, provider, durationNanos);
+	}
+
+	/*
+	 * A Provider call made on behalf of a caller with a deadline. Whoever
+	 * finishes first, the invocation or the timed out caller, releases the
+	 * capacity slot. The state machine makes sure the invocation thread is only
+	 * interrupted while it is still running this invocation.
+	 */
+	private class TimedInvocation implements Runnable {
+		private static final int NEW = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
+		private static final int CANCELLING = 3;
+		private static final int CANCELLED = 4;
+
+		private final Provider provider;
+		private final RequestPriority priority;
+		private final Deadline deadline;
+		private final CompletableFuture<String> response = new CompletableFuture<>();
+		private final AtomicInteger state = new AtomicInteger(NEW);
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		private volatile Thread invocationThread;
+
+		TimedInvocation(Provider provider, RequestPriority priority, Deadline deadline) {
+			this.provider = provider;
+			this.priority = priority;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			invocationThread = Thread.currentThread();
+			// expired while waiting for a thread, must not reach the Provider
+			if (deadline.isExpired() && state.compareAndSet(NEW, CANCELLED) && response.complete(null)) {
+				eventRingBuffer.publish(LoadBalancerEventType.REQUEST_TIMED_OUT, null, 0);
+			}
+			if (!state.compareAndSet(NEW, RUNNING)) {
+				// never reached the Provider, counted as shed
+				invocationThread = null;
+				reject();
+				return;
+			}
+			long start = nanoClock.getAsLong();
+			String result = null;
+			RuntimeException failure = null;
+			try {
+				result = provider.get();
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				if (!state.compareAndSet(RUNNING, DONE)) {
+					// wait for the canceller and clear its interrupt before the thread is reused
+					while (state.get() == CANCELLING) {
+						Thread.yield();
+					}
+					Thread.interrupted();
+				}
+				invocationThread = null;
+				release();
+			}
+			long durationNanos = nanoClock.getAsLong() - start;
+			Integer slot = providerSlots.get(provider);
+			if (slot != null) {
+				invocationPolicy.onComplete(slot, slotState, durationNanos, failure == null);
+			}
+			// a timed out request already published REQUEST_TIMED_OUT as its outcome
+			if (failure != null) {
+				if (response.completeExceptionally(failure)) {
+					eventRingBuffer.publish(LoadBalancerEventType.REQUEST_FAILED, provider, durationNanos);
+				}
+			} else if (response.complete(result)) {
+				eventRingBuffer.publish(LoadBalancerEventType.REQUEST_COMPLETED, provider, durationNanos);
+			}
+		}
+
+		/*
+		 * Called by the caller when the deadline passed
+		 */
+		void timeout() {
+			if (!response.complete(null)) {
+				return;
+			}
+			if (state.compareAndSet(NEW, CANCELLED) || state.get() == CANCELLED) {
+				// timed out before reaching the Provider, counted as shed
+				reject();
+				eventRingBuffer.publish(LoadBalancerEventType.REQUEST_TIMED_OUT, null, 0);
+				return;
+			}
+			release();
+			recordTimeout(provider);
+			eventRingBuffer.publish(LoadBalancerEventType.REQUEST_TIMED_OUT, provider, 0);
+			if (state.compareAndSet(RUNNING, CANCELLING)) {
+				try {
+					Thread thread = invocationThread;
+					if (thread != null) {
+						provider.cancel(thread);
+					}
+				} finally {
+					state.set(CANCELLED);
+				}
+			}
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				releaseClusterCapacity(priority);
+				releaseSlot(provider);
+			}
+		}
+
+		/*
+		 * Called when the invocation could not be started or expired before it
+		 * reached the Provider
+		 */
+		void reject() {
+			if (released.compareAndSet(false, true)) {
+				rejectClusterCapacity(priority);
+				releaseSlot(provider);
+			}
+		}
+	}
+
+	/*
+	 * Ends the in flight request of the Provider selected by select(), returns
+	 * its registry slot or -1 if the Provider was unregistered meanwhile
+	 */
+	private int releaseSlot(Provider provider) {
+		Integer slot = providerSlots.get(provider);
+		if (slot == null) {
+			return -1;
+		}
+		slotState.decrementInFlight(slot);
+		return slot;
+	}
+
+	/*
+	 * Registry slot of the Provider, -1 if it is not registered
+	 */
+	@Override
+	public int slot(Provider provider) {
+		Integer slot = providerSlots.get(provider);
+		return slot == null ? -1 : slot;
+	}
+
+	/*
+	 * Requests in flight on the Provider
+	 */
+	public int getInFlight(Provider provider) {
+		Integer slot = providerSlots.get(provider);
+		return slot == null ? 0 : slotState.getInFlight(slot);
+	}
+
+	private void recordTimeout(Provider provider) {
+		providerTimeouts.computeIfAbsent(provider, p -> new AtomicInteger(0)).incrementAndGet();
+	}
+
+	/*
+	 * Timed out requests of the Provider since its last heartbeat
+	 */
+	public int getRecentTimeoutCount(Provider provider) {
+		AtomicInteger timeouts = providerTimeouts.get(provider);
+		return timeouts == null ? 0 : timeouts.get();
+	}
+
+	private boolean tryAcquireProviderPermit(Provider provider) {
+		TokenBucket providerLimit = providerRateLimits.get(provider);
+		return providerLimit == null || providerLimit.tryAcquire(nanoClock.getAsLong());
+	}
+
+	/*
+	 * The Provider selected by the invocationPolicy ran out of permits, takes the
+	 * next Provider of the snapshot that has one, without allocating. Returns the
+	 * index of the selected Provider in providers or NO_PROVIDER.
+	 */
+	private int selectWithinRateLimit(ProviderSnapshot providers, int rateLimitedIndex) {
+		int size = providers.size();
+		for (int i = 1; i < size; i++) {
+			int index = (rateLimitedIndex + i) % size;
+			if (tryAcquireProviderPermit(providers.get(index))) {
+				return index;
+			}
+		}
+		return IndexedInvocationPolicy.NO_PROVIDER;
+	}
+
+	/*
+	 * Changes the requests per second limit of the whole cluster at runtime, a
+	 * non-positive permitsPerSecond removes the limit
+	 */
+	public void setClusterRateLimit(double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0) {
+			clusterRateLimit = null;
+			return;
+		}
+		TokenBucket clusterLimit = clusterRateLimit;
+		if (clusterLimit != null) {
+			clusterLimit.setRate(permitsPerSecond, burst);
+		} else {
+			clusterRateLimit = new TokenBucket(permitsPerSecond, burst);
+		}
+	}
+
+	/*
+	 * Changes the requests per second limit of a Provider at runtime, a
+	 * non-positive permitsPerSecond removes the limit
+	 */
+	public void setProviderRateLimit(Provider provider, double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0) {
+			providerRateLimits.remove(provider);
+			return;
+		}
+		TokenBucket providerLimit = providerRateLimits.putIfAbsent(provider, new TokenBucket(permitsPerSecond, burst));
+		if (providerLimit != null) {
+			providerLimit.setRate(permitsPerSecond, burst);
+		}
+	}
+
+	/*
+	 * Runs get() on the invocationExecutor. The future completes with null if
+	 * the request is rejected, either by the Cluster Capacity or by the in flight
+	 * limit of the executor.
+	 */
+	public CompletableFuture<String> getAsync() {
+		return getAsync(RequestPriority.NORMAL);
+	}
+
+	public CompletableFuture<String> getAsync(RequestPriority priority) {
+		if (invocationExecutor == null) {
+			throw new java.lang.IllegalStateException("No invocation executor configured, use Builder.withInvocationExecutor()");
+		}
+		return invocationExecutor.submit(() -> get(priority));
+	}
+
+	/*
+	 * Current time of the nanoClock, the time source of the rate limits and the
+	 * request durations
+	 */
+	public long nanoTime() {
+		return nanoClock.getAsLong();
+	}
+
+	/*
+	 * Admitted/shed counters and requests in flight by RequestPriority
+	 */
+	public PriorityLanes getPriorityLanes() {
+		return priorityLanes;
 	}
 
 	/*
@@ -244,11 +1183,20 @@ public class LoadBalancer implements HeartbeatMonitorable {
 		boolean excluded = false;
 		synchronized (availableProviders) {
 			excluded = availableProviders.remove(provider);
+			if (excluded) {
+				synchronized (unavailableProviders) {
+					unavailableProviders.add(provider);
+				}
+				if (subsetting != null) {
+					// a replacement takes its place in the subset
+					updateSubset();
+				} else {
+					availableProvidersChanged();
+				}
+			}
 		}
 		if (excluded) {
-			synchronized (unavailableProviders) {
-				unavailableProviders.add(provider);
-			}
+			eventRingBuffer.publish(LoadBalancerEventType.PROVIDER_EXCLUDED, provider, 0);
 		}
 		return excluded;
 	}
@@ -263,23 +1211,88 @@ public class LoadBalancer implements HeartbeatMonitorable {
 		}
 		if (toBeIncluded) {
 			synchronized (availableProviders) {
-				availableProviders.add(provider);
+				if (subsetting != null) {
+					updateSubset();
+				} else if (allProviders.containsKey(provider.getId())) {
+					availableProviders.add(provider);
+					availableProvidersChanged();
+				}
 			}
+			eventRingBuffer.publish(LoadBalancerEventType.PROVIDER_INCLUDED, provider, 0);
 		}
 		return toBeIncluded;
 	}
 
+	/*
+	 * Checks the provider for the HeartbeatPolicy and publishes the outcome. A
+	 * Provider that timed out timeoutThreshold times since its last heartbeat is
+	 * reported unhealthy even if its check succeeds.
+	 */
+	@Override
+	public boolean probe(Provider provider) {
+		Map<Provider, Boolean> results = heartbeatResults;
+		Boolean result = results != null ? results.get(provider) : null;
+		return probe(provider, result != null ? result : provider.check());
+	}
+
+	@Override
+	public boolean probe(Provider provider, boolean checkResult) {
+		boolean healthy = checkResult;
+		AtomicInteger timeouts = providerTimeouts.get(provider);
+		int recentTimeouts = timeouts == null ? 0 : timeouts.getAndSet(0);
+		if (timeoutThreshold > 0 && recentTimeouts >= timeoutThreshold) {
+			healthy = false;
+		}
+		eventRingBuffer.publish(healthy ? LoadBalancerEventType.HEARTBEAT_SUCCEEDED : LoadBalancerEventType.HEARTBEAT_FAILED, provider, 0);
+		return healthy;
+	}
+
+	/*
+	 * Starts a consumer thread that receives the events of this Load Balancer.
+	 * Slow listeners do not slow down the requests, events that do not fit into
+	 * the buffer are dropped and counted.
+	 */
+	public void addEventListener(LoadBalancerEventListener eventListener) {
+		eventRingBuffer.addListener(eventListener);
+	}
+
+	public boolean removeEventListener(LoadBalancerEventListener eventListener) {
+		return eventRingBuffer.removeListener(eventListener);
+	}
+
+	/*
+	 * Number of events dropped because the listeners could not keep up
+	 */
+	public long getDroppedEventCount() {
+		return eventRingBuffer.getDroppedEventCount();
+	}
+
+	/*
+	 * Number of events a listener threw an exception on, the exceptions are not
+	 * propagated to the request path
+	 */
+	public long getListenerFailureCount() {
+		return eventRingBuffer.getListenerFailureCount();
+	}
+
 	private LoadBalancer() {
 
 	}
 
 	/*
-	 * Stops the heartbeat scheduler
+	 * Stops the heartbeat scheduler and the event listeners. The invocation
+	 * executor and the heartbeat service are owned by the caller and can be
+	 * shared by Load Balancers, they are not stopped; only the heartbeats of
+	 * this Load Balancer are cancelled.
 	 */
 	public void shutdown() {
 		if (scheduler != null) {
 			scheduler.shutdownNow();
 		}
+		if (heartbeatSubscription != null) {
+			heartbeatSubscription.cancel();
+		}
+		eventRingBuffer.shutdown();
 	}
 
 }
@@ -0,0 +1,114 @@
+package nl.alperturkyilmaz.loadbalancer.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Drains the EventRingBuffer on its own thread and hands the events over to a
+ * single listener. The sequence of the processor is the last event it has
+ * consumed, publishers never overwrite a slot that has not been consumed yet.
+ * 
+ * An idle processor backs off progressively: it spins, then yields, then parks
+ * until a publisher wakes it up, so it uses no CPU without traffic.
+ */
+final class EventProcessor implements Runnable {
+
+	static int SPIN_TRIES = 100;
+	static int YIELD_TRIES = 100;
+
+	private final EventRingBuffer ringBuffer;
+	private final LoadBalancerEventListener listener;
+	private final AtomicLong sequence;
+	private volatile boolean running = true;
+
+	/*
+	 * Set while the processor is parked or about to park, publishers wake it up
+	 */
+	private volatile boolean sleeping;
+	private volatile Thread thread;
+
+	EventProcessor(EventRingBuffer ringBuffer, LoadBalancerEventListener listener, long initialSequence) {
+		this.ringBuffer = ringBuffer;
+		this.listener = listener;
+		this.sequence = new AtomicLong(initialSequence);
+	}
+
+	LoadBalancerEventListener getListener() {
+		return listener;
+	}
+
+	long getSequence() {
+		return sequence.get();
+	}
+
+	void halt() {
+		running = false;
+		wakeUp();
+	}
+
+	/*
+	 * Called by publishers after publishing, cheap unless the processor sleeps
+	 */
+	void signal() {
+		if (sleeping) {
+			wakeUp();
+		}
+	}
+
+	private void wakeUp() {
+		Thread processorThread = thread;
+		if (processorThread != null) {
+			LockSupport.unpark(processorThread);
+		}
+	}
+
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+		long nextSequence = sequence.get() + 1;
+		int idleTries = 0;
+		while (running) {
+			long availableSequence = ringBuffer.getHighestPublishedSequence(nextSequence);
+			if (availableSequence < nextSequence) {
+				long publishedSequence = ringBuffer.getPublishedSequence(nextSequence);
+				if (publishedSequence > nextSequence) {
+					// Lapped by a publisher that claimed before this processor was visible,
+					// skip the overwritten events
+					sequence.set(publishedSequence - 1);
+					nextSequence = publishedSequence;
+				} else {
+					idleTries = backOff(idleTries, nextSequence);
+				}
+				continue;
+			}
+			idleTries = 0;
+			for (long current = nextSequence; current <= availableSequence; current++) {
+				try {
+					listener.onEvent(ringBuffer.get(current), current, current == availableSequence);
+				} catch (RuntimeException e) {
+					// A failing listener must not stall the ring buffer
+					ringBuffer.listenerFailed();
+				}
+			}
+			sequence.set(availableSequence);
+			nextSequence = availableSequence + 1;
+		}
+	}
+
+	private int backOff(int idleTries, long nextSequence) {
+		if (idleTries < SPIN_TRIES) {
+			return idleTries + 1;
+		}
+		if (idleTries < SPIN_TRIES + YIELD_TRIES) {
+			Thread.yield();
+			return idleTries + 1;
+		}
+		sleeping = true;
+		// publishers check sleeping after publishing, check again before parking
+		if (running && ringBuffer.getHighestPublishedSequence(nextSequence) < nextSequence) {
+			LockSupport.park(this);
+		}
+		sleeping = false;
+		return idleTries;
+	}
+}
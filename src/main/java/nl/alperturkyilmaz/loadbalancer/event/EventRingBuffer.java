@@ -0,0 +1,189 @@
+package nl.alperturkyilmaz.loadbalancer.event;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Preallocated multi-producer ring buffer for LoadBalancer events.
+ * 
+ * Publishers claim a sequence with a CAS on the cursor and write into the
+ * preallocated slot, so publishing never allocates and never blocks. If the
+ * slowest consumer has not released the slot yet, the event is dropped and
+ * counted instead of applying backpressure to the request path. Every listener
+ * is drained by its own EventProcessor thread in batches.
+ */
+public class EventRingBuffer {
+
+	public static int DEFAULT_BUFFER_SIZE = 1024;
+
+	private static final EventProcessor[] NO_PROCESSORS = new EventProcessor[0];
+
+	private final LoadBalancerEvent[] entries;
+
+	/*
+	 * Sequence published in each slot, consumers spin on it to find the end of
+	 * the batch
+	 */
+	private final AtomicLongArray publishedSequences;
+
+	private final int mask;
+
+	private final AtomicLong cursor = new AtomicLong(-1);
+
+	private final AtomicLong droppedEvents = new AtomicLong(0);
+
+	private final AtomicLong listenerFailures = new AtomicLong(0);
+
+	/*
+	 * Copy-on-write, only changed when listeners are added or removed
+	 */
+	private volatile EventProcessor[] processors = NO_PROCESSORS;
+
+	public EventRingBuffer() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public EventRingBuffer(int bufferSize) {
+		if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+			throw new java.lang.IllegalArgumentException("Event buffer size must be a positive power of 2");
+		}
+		entries = new LoadBalancerEvent[bufferSize];
+		for (int i = 0; i < bufferSize; i++) {
+			entries[i] = new LoadBalancerEvent();
+		}
+		publishedSequences = new AtomicLongArray(bufferSize);
+		for (int i = 0; i < bufferSize; i++) {
+			publishedSequences.set(i, -1);
+		}
+		mask = bufferSize - 1;
+	}
+
+	public int getBufferSize() {
+		return entries.length;
+	}
+
+	/*
+	 * Publishes an event to every listener. Returns false if there is no
+	 * listener or the event has been dropped since the buffer is full.
+	 */
+	public boolean publish(LoadBalancerEventType type, Provider provider, long durationNanos) {
+		EventProcessor[] gatingProcessors = processors;
+		if (gatingProcessors.length == 0) {
+			return false;
+		}
+		long current;
+		long next;
+		do {
+			current = cursor.get();
+			next = current + 1;
+			if (next - entries.length > minimumSequence(gatingProcessors, current)) {
+				droppedEvents.incrementAndGet();
+				return false;
+			}
+		} while (!cursor.compareAndSet(current, next));
+
+		int index = (int) next & mask;
+		entries[index].set(type, provider, System.nanoTime(), durationNanos);
+		publishedSequences.set(index, next);
+		for (EventProcessor processor : gatingProcessors) {
+			processor.signal();
+		}
+		return true;
+	}
+
+	/*
+	 * Number of events dropped because of slow listeners
+	 */
+	public long getDroppedEventCount() {
+		return droppedEvents.get();
+	}
+
+	/*
+	 * Number of events a listener failed on with an exception
+	 */
+	public long getListenerFailureCount() {
+		return listenerFailures.get();
+	}
+
+	void listenerFailed() {
+		listenerFailures.incrementAndGet();
+	}
+
+	/*
+	 * Starts a consumer thread for the listener. The listener receives the
+	 * events published after this call.
+	 */
+	public synchronized void addListener(LoadBalancerEventListener listener) {
+		if (listener == null) {
+			return;
+		}
+		EventProcessor processor = new EventProcessor(this, listener, cursor.get());
+		EventProcessor[] updated = Arrays.copyOf(processors, processors.length + 1);
+		updated[updated.length - 1] = processor;
+		processors = updated;
+
+		Thread thread = new Thread(processor, "loadbalancer-event-processor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * Stops the consumer thread of the listener
+	 */
+	public synchronized boolean removeListener(LoadBalancerEventListener listener) {
+		EventProcessor[] current = processors;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].getListener() == listener) {
+				EventProcessor[] updated = new EventProcessor[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				processors = updated.length == 0 ? NO_PROCESSORS : updated;
+				current[i].halt();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Stops all consumer threads
+	 */
+	public synchronized void shutdown() {
+		for (EventProcessor processor : processors) {
+			processor.halt();
+		}
+		processors = NO_PROCESSORS;
+	}
+
+	LoadBalancerEvent get(long sequence) {
+		return entries[(int) sequence & mask];
+	}
+
+	long getPublishedSequence(long sequence) {
+		return publishedSequences.get((int) sequence & mask);
+	}
+
+	/*
+	 * Highest sequence, starting from lowerBound, up to which all slots are
+	 * published. Returns lowerBound - 1 if nothing is available.
+	 */
+	long getHighestPublishedSequence(long lowerBound) {
+		long upperBound = cursor.get();
+		for (long sequence = lowerBound; sequence <= upperBound; sequence++) {
+			if (publishedSequences.get((int) sequence & mask) != sequence) {
+				return sequence - 1;
+			}
+		}
+		return upperBound;
+	}
+
+	private static long minimumSequence(EventProcessor[] gatingProcessors, long minimum) {
+		for (EventProcessor processor : gatingProcessors) {
+			minimum = Math.min(minimum, processor.getSequence());
+		}
+		return minimum;
+	}
+}
@@ -0,0 +1,56 @@
+package nl.alperturkyilmaz.loadbalancer.event;
+
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * A preallocated slot of the EventRingBuffer. Instances are reused by the
+ * publishers once every consumer has passed them, so listeners must copy the
+ * values they want to keep instead of holding a reference to the event.
+ */
+public final class LoadBalancerEvent {
+	private LoadBalancerEventType type;
+	private Provider provider;
+	private long timestampNanos;
+	private long durationNanos;
+
+	LoadBalancerEvent() {
+	}
+
+	void set(LoadBalancerEventType type, Provider provider, long timestampNanos, long durationNanos) {
+		this.type = type;
+		this.provider = provider;
+		this.timestampNanos = timestampNanos;
+		this.durationNanos = durationNanos;
+	}
+
+	public LoadBalancerEventType getType() {
+		return type;
+	}
+
+	/*
+	 * The Provider the event is about, null for requests that did not reach a
+	 * Provider
+	 */
+	public Provider getProvider() {
+		return provider;
+	}
+
+	/*
+	 * System.nanoTime() at which the event has been published
+	 */
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	/*
+	 * Time spent in the Provider for request events, 0 for others
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	@Override
+	public String toString() {
+		return type + (provider != null ? "[" + provider.getId() + "]" : "");
+	}
+}
@@ -0,0 +1,13 @@
+package nl.alperturkyilmaz.loadbalancer.event;
+
+public interface LoadBalancerEventListener {
+
+	/*
+	 * Called on the consumer thread of the listener for every published event.
+	 * Events are delivered in batches, endOfBatch is true for the last event of
+	 * the batch that is currently available. The event instance is reused after
+	 * the call returns.
+	 */
+	void onEvent(LoadBalancerEvent event, long sequence, boolean endOfBatch);
+
+}
@@ -0,0 +1,54 @@
+package nl.alperturkyilmaz.loadbalancer.event;
+
+public enum LoadBalancerEventType {
+	/*
+	 * A request has been served by a Provider
+	 */
+	REQUEST_COMPLETED,
+
+	/*
+	 * The Provider threw while serving a request
+	 */
+	REQUEST_FAILED,
+
+	/*
+	 * The deadline of a request passed before the Provider answered
+	 */
+	REQUEST_TIMED_OUT,
+
+	/*
+	 * A request has been rejected since the Cluster Capacity is exceeded
+	 */
+	REQUEST_REJECTED,
+
+	/*
+	 * A request could not be served since there is no available Provider
+	 */
+	REQUEST_NO_PROVIDER,
+
+	/*
+	 * A request could not be served since the cluster or every available
+	 * Provider ran out of rate limit permits
+	 */
+	REQUEST_RATE_LIMITED,
+
+	/*
+	 * A Provider has been removed from the available list
+	 */
+	PROVIDER_EXCLUDED,
+
+	/*
+	 * A Provider has been added back to the available list
+	 */
+	PROVIDER_INCLUDED,
+
+	/*
+	 * Heartbeat check of a Provider succeeded
+	 */
+	HEARTBEAT_SUCCEEDED,
+
+	/*
+	 * Heartbeat check of a Provider failed
+	 */
+	HEARTBEAT_FAILED
+}
@@ -0,0 +1,59 @@
+package nl.alperturkyilmaz.loadbalancer.execution;
+
+import java.time.Duration;
+
+/*
+ * Point in System.nanoTime() time until which a request is allowed to run.
+ * A Deadline can be passed on to the calls made on behalf of the same request,
+ * so the remaining time shrinks along the call chain.
+ */
+public final class Deadline {
+
+	private final long deadlineNanos;
+
+	private Deadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	public static Deadline after(Duration timeout) {
+		if (timeout == null || timeout.isNegative()) {
+			throw new java.lang.IllegalArgumentException("Timeout must not be negative");
+		}
+		long now = System.nanoTime();
+		long timeoutNanos;
+		try {
+			timeoutNanos = timeout.toNanos();
+		} catch (ArithmeticException e) {
+			timeoutNanos = Long.MAX_VALUE;
+		}
+		// saturate instead of overflowing for very long timeouts
+		return new Deadline(timeoutNanos > Long.MAX_VALUE - Math.max(now, 0) ? Long.MAX_VALUE : now + timeoutNanos);
+	}
+
+	/*
+	 * Deadline at the given System.nanoTime() value
+	 */
+	public static Deadline atNanos(long deadlineNanos) {
+		return new Deadline(deadlineNanos);
+	}
+
+	public long getDeadlineNanos() {
+		return deadlineNanos;
+	}
+
+	/*
+	 * Remaining time in nanoseconds, non-positive if expired
+	 */
+	public long remainingNanos() {
+		return deadlineNanos - System.nanoTime();
+	}
+
+	public boolean isExpired() {
+		return remainingNanos() <= 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline[remaining=" + Duration.ofNanos(remainingNanos()) + "]";
+	}
+}
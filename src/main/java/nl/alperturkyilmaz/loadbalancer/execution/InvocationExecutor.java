@@ -0,0 +1,194 @@
+package nl.alperturkyilmaz.loadbalancer.execution;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/*
+ * Runs blocking Provider invocations and heartbeat checks off the caller
+ * thread.
+ * 
+ * The number of invocations in flight is limited by a semaphore, not by the
+ * size of the thread pool, so the same limit applies to platform and virtual
+ * threads. Virtual threads are looked up reflectively, the library keeps
+ * targeting Java 8 and uses them whenever it runs on a JDK that provides them
+ * (21+).
+ */
+public class InvocationExecutor implements Executor {
+
+	public static int UNLIMITED_IN_FLIGHT = 0;
+
+	private static final String THREAD_NAME_PREFIX = "loadbalancer-invocation-";
+
+	private final ExecutorService executorService;
+
+	private final ThreadFactory threadFactory;
+
+	/*
+	 * null if the invocations in flight are not limited
+	 */
+	private final Semaphore inFlightPermits;
+
+	private final boolean virtualThreads;
+
+	private InvocationExecutor(ExecutorService executorService, ThreadFactory threadFactory, int maximumInFlight, boolean virtualThreads) {
+		this.executorService = executorService;
+		this.threadFactory = threadFactory;
+		this.inFlightPermits = maximumInFlight <= UNLIMITED_IN_FLIGHT ? null : new Semaphore(maximumInFlight);
+		this.virtualThreads = virtualThreads;
+	}
+
+	/*
+	 * Returns true if the running JDK supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return VirtualThreads.FACTORY != null;
+	}
+
+	/*
+	 * One virtual thread per invocation. Throws UnsupportedOperationException if
+	 * the running JDK has no virtual threads.
+	 */
+	public static InvocationExecutor virtualThreads(int maximumInFlight) {
+		if (!isVirtualThreadSupported()) {
+			throw new java.lang.UnsupportedOperationException("Virtual threads require JDK 21 or later, running on " + System.getProperty("java.version"));
+		}
+		return new InvocationExecutor(VirtualThreads.newThreadPerTaskExecutor(), VirtualThreads.FACTORY, maximumInFlight, true);
+	}
+
+	/*
+	 * Fixed pool of daemon platform threads, invocations exceeding the pool size
+	 * wait in the queue of the pool.
+	 */
+	public static InvocationExecutor platformThreads(int poolSize, int maximumInFlight) {
+		if (poolSize <= 0) {
+			throw new java.lang.IllegalArgumentException("Pool size must be positive");
+		}
+		ThreadFactory threadFactory = new PlatformThreadFactory();
+		ExecutorService executorService = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		return new InvocationExecutor(executorService, threadFactory, maximumInFlight, false);
+	}
+
+	/*
+	 * Virtual threads if supported by the running JDK, a platform thread pool of
+	 * fallbackPoolSize o.w.
+	 */
+	public static InvocationExecutor preferVirtualThreads(int maximumInFlight, int fallbackPoolSize) {
+		return isVirtualThreadSupported() ? virtualThreads(maximumInFlight) : platformThreads(fallbackPoolSize, maximumInFlight);
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/*
+	 * Thread factory used by the executor, can be used to run other blocking work
+	 * (e.g. a heartbeat scheduler) on the same kind of threads.
+	 */
+	public ThreadFactory getThreadFactory() {
+		return threadFactory;
+	}
+
+	/*
+	 * Number of invocations that can still be started, Integer.MAX_VALUE if not
+	 * limited
+	 */
+	public int getAvailablePermits() {
+		return inFlightPermits == null ? Integer.MAX_VALUE : inFlightPermits.availablePermits();
+	}
+
+	/*
+	 * Runs the invocation asynchronously. If the in flight limit is reached the
+	 * invocation is not started and the returned future completes with null, the
+	 * same way LoadBalancer.get() answers when the cluster capacity is exceeded.
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> invocation) {
+		if (inFlightPermits != null && !inFlightPermits.tryAcquire()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executorService.execute(() -> {
+				T result;
+				try {
+					result = invocation.get();
+				} catch (Throwable t) {
+					release();
+					future.completeExceptionally(t);
+					return;
+				}
+				// Released before completion, so the permit is available to the callbacks
+				release();
+				future.complete(result);
+			});
+		} catch (RuntimeException e) {
+			release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/*
+	 * Runs the command without taking an in flight permit
+	 */
+	@Override
+	public void execute(Runnable command) {
+		executorService.execute(command);
+	}
+
+	public void shutdown() {
+		executorService.shutdownNow();
+	}
+
+	private void release() {
+		if (inFlightPermits != null) {
+			inFlightPermits.release();
+		}
+	}
+
+	private static class PlatformThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + counter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/*
+	 * Reflective access to the JDK 21 virtual thread API
+	 */
+	private static class VirtualThreads {
+		static final ThreadFactory FACTORY = lookupFactory();
+
+		private static ThreadFactory lookupFactory() {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 0L);
+				return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		static ExecutorService newThreadPerTaskExecutor() {
+			try {
+				Method method = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+				return (ExecutorService) method.invoke(null, FACTORY);
+			} catch (ReflectiveOperationException e) {
+				throw new java.lang.UnsupportedOperationException("Virtual threads are not available", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package nl.alperturkyilmaz.loadbalancer.heartbeat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatMonitorable;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Heartbeat scheduler shared by Load Balancers.
+ * 
+ * Every subscribed HeartbeatMonitorable is checked with its own HeartbeatPolicy
+ * every period. Subscriptions with the same period are served by one round:
+ * the Providers of all of them are checked once on the probe pool, and the
+ * results are handed to the policy of every subscription. A check that is
+ * still running when another round needs the same Provider is shared as well.
+ * A check that does not finish within the check timeout after it started
+ * counts as failed, so a hung Provider can not hold up the rounds. The pool
+ * keeps probeThreads threads and grows beyond them instead of queueing checks,
+ * so checks hung in Provider.check() can not starve the others.
+ * 
+ * The threads are started with the first subscription and stopped when the
+ * last one is cancelled. A subscription joining an existing round gets its
+ * first heartbeat with the next round.
+ */
+public class HeartbeatService {
+
+	public static int DEFAULT_PROBE_THREADS = 4;
+	public static long DEFAULT_CHECK_TIMEOUT_MILLIS = 5000;
+
+	/*
+	 * Probe threads above probeThreads are stopped after being idle this long
+	 */
+	private static final long PROBE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private static HeartbeatService shared;
+
+	private final int probeThreads;
+	private final long checkTimeoutNanos;
+
+	/*
+	 * Rounds by period in nanoseconds
+	 */
+	private final Map<Long, ProbeRound> rounds = new HashMap<>();
+
+	/*
+	 * Checks that are running, shared by the rounds
+	 */
+	private final Map<Provider, CompletableFuture<Boolean>> runningChecks = new ConcurrentHashMap<>();
+
+	/*
+	 * Providers whose check timed out and still occupies a probe thread, they
+	 * fail without a new check until it returns
+	 */
+	private final Set<Provider> hungChecks = ConcurrentHashMap.newKeySet();
+
+	private final LongAdder checkCount = new LongAdder();
+	private final LongAdder checkTimeouts = new LongAdder();
+	private final LongAdder policyFailures = new LongAdder();
+
+	private ScheduledExecutorService scheduler;
+	private ExecutorService probeExecutor;
+	private int subscriptionCount;
+
+	public HeartbeatService(int probeThreads) {
+		this(probeThreads, Duration.ofMillis(DEFAULT_CHECK_TIMEOUT_MILLIS));
+	}
+
+	public HeartbeatService(int probeThreads, Duration checkTimeout) {
+		if (probeThreads <= 0) {
+			throw new java.lang.IllegalArgumentException("Number of probe threads must be positive");
+		}
+		if (checkTimeout == null || checkTimeout.isNegative() || checkTimeout.isZero()) {
+			throw new java.lang.IllegalArgumentException("Check timeout must be positive");
+		}
+		this.probeThreads = probeThreads;
+		this.checkTimeoutNanos = checkTimeout.toNanos();
+	}
+
+	/*
+	 * Process wide instance with DEFAULT_PROBE_THREADS probe threads
+	 */
+	public static synchronized HeartbeatService shared() {
+		if (shared == null) {
+			shared = new HeartbeatService(DEFAULT_PROBE_THREADS);
+		}
+		return shared;
+	}
+
+	/*
+	 * Applies the policy to the monitorable every period until the subscription
+	 * is cancelled
+	 */
+	public synchronized HeartbeatSubscription subscribe(HeartbeatMonitorable monitorable, HeartbeatPolicy policy, Duration period) {
+		if (monitorable == null || policy == null) {
+			throw new java.lang.IllegalArgumentException("Monitorable and heartbeat policy can not be null");
+		}
+		if (period == null || period.isNegative() || period.isZero()) {
+			throw new java.lang.IllegalArgumentException("Heartbeat period must be positive");
+		}
+		if (subscriptionCount++ == 0) {
+			start();
+		}
+		long periodNanos = period.toNanos();
+		ProbeRound round = rounds.get(periodNanos);
+		if (round == null) {
+			round = new ProbeRound(scheduler, probeExecutor);
+			rounds.put(periodNanos, round);
+			round.schedule = scheduler.scheduleAtFixedRate(round::run, 0, periodNanos, TimeUnit.NANOSECONDS);
+		}
+		HeartbeatSubscription subscription = new HeartbeatSubscription(this, monitorable, policy, periodNanos);
+		round.subscriptions.add(subscription);
+		return subscription;
+	}
+
+	synchronized void unsubscribe(HeartbeatSubscription subscription) {
+		ProbeRound round = rounds.get(subscription.getPeriodNanos());
+		if (round == null || !round.subscriptions.remove(subscription)) {
+			return;
+		}
+		if (round.subscriptions.isEmpty()) {
+			round.schedule.cancel(false);
+			rounds.remove(subscription.getPeriodNanos());
+		}
+		if (--subscriptionCount == 0) {
+			stop();
+		}
+	}
+
+	private void start() {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "heartbeat-service-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+		scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		probeExecutor = new ThreadPoolExecutor(probeThreads, Integer.MAX_VALUE, PROBE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<>(), threadFactory);
+	}
+
+	private void stop() {
+		scheduler.shutdownNow();
+		probeExecutor.shutdownNow();
+		scheduler = null;
+		probeExecutor = null;
+		runningChecks.clear();
+		hungChecks.clear();
+	}
+
+	/*
+	 * Number of active subscriptions
+	 */
+	public synchronized int getSubscriptionCount() {
+		return subscriptionCount;
+	}
+
+	/*
+	 * Number of active subscriptions the Provider is checked for
+	 */
+	public synchronized int getSubscriberCount(Provider provider) {
+		int subscribers = 0;
+		for (ProbeRound round : rounds.values()) {
+			for (HeartbeatSubscription subscription : round.subscriptions) {
+				if (subscription.getMonitorable().getProviders().contains(provider)) {
+					subscribers++;
+				}
+			}
+		}
+		return subscribers;
+	}
+
+	/*
+	 * Number of Provider.check() calls made so far
+	 */
+	public long getCheckCount() {
+		return checkCount.sum();
+	}
+
+	/*
+	 * Number of checks that did not finish within the check timeout
+	 */
+	public long getCheckTimeoutCount() {
+		return checkTimeouts.sum();
+	}
+
+	/*
+	 * Number of times a heartbeat policy, or a monitorable while the Providers of
+	 * a round were collected, failed with an exception
+	 */
+	public long getPolicyFailureCount() {
+		return policyFailures.sum();
+	}
+
+	/*
+	 * Joins the running check of the Provider or starts one. The check fails when
+	 * it does not finish within the check timeout after it started running and
+	 * is no longer shared.
+	 */
+	private CompletableFuture<Boolean> check(Provider provider, ScheduledExecutorService timer, ExecutorService executor) {
+		if (hungChecks.contains(provider)) {
+			return CompletableFuture.completedFuture(Boolean.FALSE);
+		}
+		CompletableFuture<Boolean> running = runningChecks.get(provider);
+		if (running != null) {
+			return running;
+		}
+		CompletableFuture<Boolean> check = new CompletableFuture<>();
+		running = runningChecks.putIfAbsent(provider, check);
+		if (running != null) {
+			return running;
+		}
+		AtomicBoolean returned = new AtomicBoolean(false);
+		try {
+			executor.execute(() -> {
+				scheduleTimeout(provider, check, returned, timer);
+				boolean healthy;
+				try {
+					healthy = provider.check();
+				} catch (RuntimeException e) {
+					healthy = false;
+				}
+				returned.set(true);
+				hungChecks.remove(provider);
+				runningChecks.remove(provider, check);
+				check.complete(healthy);
+			});
+		} catch (RejectedExecutionException e) {
+			runningChecks.remove(provider, check);
+			throw e;
+		}
+		checkCount.increment();
+		return check;
+	}
+
+	/*
+	 * Fails the check when it is still running after the check timeout, called
+	 * by the probe thread right before Provider.check()
+	 */
+	private void scheduleTimeout(Provider provider, CompletableFuture<Boolean> check, AtomicBoolean returned, ScheduledExecutorService timer) {
+		ScheduledFuture<?> timeout;
+		try {
+			timeout = timer.schedule(() -> {
+				if (check.complete(Boolean.FALSE)) {
+					checkTimeouts.increment();
+					hungChecks.add(provider);
+					runningChecks.remove(provider, check);
+					if (returned.get()) {
+						// returned right after the timeout
+						hungChecks.remove(provider);
+					}
+				}
+			}, checkTimeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// the service stopped, nobody waits for the check anymore
+			return;
+		}
+		check.whenComplete((healthy, failure) -> timeout.cancel(false));
+	}
+
+	/*
+	 * Subscriptions with the same period
+	 */
+	private final class ProbeRound {
+		private final ScheduledExecutorService timer;
+		private final ExecutorService executor;
+		private final List<HeartbeatSubscription> subscriptions = new CopyOnWriteArrayList<>();
+		private final AtomicBoolean running = new AtomicBoolean(false);
+		private ScheduledFuture<?> schedule;
+
+		ProbeRound(ScheduledExecutorService timer, ExecutorService executor) {
+			this.timer = timer;
+			this.executor = executor;
+		}
+
+		/*
+		 * Starts the checks of all subscribed Providers, the policies are applied on
+		 * the scheduler thread when all of them are done, so hung checks occupying
+		 * the probe pool can not hold them up. A round is skipped while the
+		 * previous one is still running. Exceptions are not propagated, they would
+		 * cancel the periodic schedule.
+		 */
+		void run() {
+			if (!running.compareAndSet(false, true)) {
+				return;
+			}
+			boolean started = false;
+			try {
+				// subscriptions joining while the checks run wait for the next round
+				List<HeartbeatSubscription> subscribers = new ArrayList<>(subscriptions);
+				Map<Provider, CompletableFuture<Boolean>> checks = new HashMap<>();
+				for (HeartbeatSubscription subscription : subscribers) {
+					for (Provider provider : subscription.getMonitorable().getProviders()) {
+						if (!checks.containsKey(provider)) {
+							checks.put(provider, check(provider, timer, executor));
+						}
+					}
+				}
+				CompletableFuture.allOf(checks.values().toArray(new CompletableFuture<?>[0])).whenCompleteAsync((done, failure) -> {
+					try {
+						applyPolicies(subscribers, checks);
+					} finally {
+						running.set(false);
+					}
+				}, timer);
+				started = true;
+			} catch (RejectedExecutionException e) {
+				// the service stopped
+			} catch (RuntimeException e) {
+				// a monitorable failed, the next round tries again
+				policyFailures.increment();
+			} finally {
+				if (!started) {
+					running.set(false);
+				}
+			}
+		}
+
+		private void applyPolicies(List<HeartbeatSubscription> subscribers, Map<Provider, CompletableFuture<Boolean>> checks) {
+			for (HeartbeatSubscription subscription : subscribers) {
+				if (!subscriptions.contains(subscription)) {
+					// cancelled meanwhile
+					continue;
+				}
+				try {
+					subscription.getPolicy().apply(new CheckedMonitorable(subscription.getMonitorable(), checks, timer, executor));
+				} catch (RuntimeException e) {
+					// a failing policy must not stop the heartbeats of the other subscriptions
+					policyFailures.increment();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Hands the results of the round to the policy instead of checking again.
+	 * Providers that joined the monitorable after the round started are
+	 * unprobed for this round, they are left out of getProviders() and checked
+	 * with the next round.
+	 */
+	private final class CheckedMonitorable implements HeartbeatMonitorable {
+		private final HeartbeatMonitorable delegate;
+		private final Map<Provider, CompletableFuture<Boolean>> checks;
+		private final ScheduledExecutorService timer;
+		private final ExecutorService executor;
+
+		CheckedMonitorable(HeartbeatMonitorable delegate, Map<Provider, CompletableFuture<Boolean>> checks, ScheduledExecutorService timer,
+				ExecutorService executor) {
+			this.delegate = delegate;
+			this.checks = checks;
+			this.timer = timer;
+			this.executor = executor;
+		}
+
+		@Override
+		public Collection<Provider> getProviders() {
+			List<Provider> checked = new ArrayList<>();
+			for (Provider provider : delegate.getProviders()) {
+				if (checks.containsKey(provider)) {
+					checked.add(provider);
+				}
+			}
+			return checked;
+		}
+
+		@Override
+		public boolean include(Provider provider) {
+			return delegate.include(provider);
+		}
+
+		@Override
+		public boolean exclude(Provider provider) {
+			return delegate.exclude(provider);
+		}
+
+		@Override
+		public int slot(Provider provider) {
+			return delegate.slot(provider);
+		}
+
+		@Override
+		public boolean probe(Provider provider) {
+			CompletableFuture<Boolean> check = checks.get(provider);
+			if (check == null) {
+				// a policy probing a Provider it was not handed, checked on the probe pool
+				// and waited for here, as the timeout runs on this thread
+				return delegate.probe(provider, await(check(provider, timer, executor)));
+			}
+			return delegate.probe(provider, check.join());
+		}
+
+		@Override
+		public boolean probe(Provider provider, boolean checkResult) {
+			return delegate.probe(provider, checkResult);
+		}
+
+		private boolean await(CompletableFuture<Boolean> check) {
+			try {
+				return check.get(checkTimeoutNanos, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException | TimeoutException e) {
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package nl.alperturkyilmaz.loadbalancer.heartbeat;
+
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatMonitorable;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatPolicy;
+
+/*
+ * Subscription of a HeartbeatMonitorable to a HeartbeatService
+ */
+public final class HeartbeatSubscription {
+
+	private final HeartbeatService service;
+	private final HeartbeatMonitorable monitorable;
+	private final HeartbeatPolicy policy;
+	private final long periodNanos;
+
+	HeartbeatSubscription(HeartbeatService service, HeartbeatMonitorable monitorable, HeartbeatPolicy policy, long periodNanos) {
+		this.service = service;
+		this.monitorable = monitorable;
+		this.policy = policy;
+		this.periodNanos = periodNanos;
+	}
+
+	public HeartbeatMonitorable getMonitorable() {
+		return monitorable;
+	}
+
+	public HeartbeatPolicy getPolicy() {
+		return policy;
+	}
+
+	public long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	/*
+	 * Stops the heartbeats of the monitorable. Providers other subscriptions
+	 * need are still checked.
+	 */
+	public void cancel() {
+		service.unsubscribe(this);
+	}
+}
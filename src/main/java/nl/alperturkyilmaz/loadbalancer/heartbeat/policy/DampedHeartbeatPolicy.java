@@ -0,0 +1,284 @@
+package nl.alperturkyilmaz.loadbalancer.heartbeat.policy;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Heartbeat policy with a sliding window health score and route flap damping.
+ *
+ * The outcomes of the last windowSize probes of every Provider are kept as
+ * bits of a long, the health score is the share of successful probes in the
+ * window. A failed probe excludes the Provider right away. It is included again
+ * after consecutiveSuccesses successful probes in a row, if its health score is
+ * at least minimumHealthScore.
+ *
+ * Every time a healthy Provider fails (a flap) it collects a penalty, which
+ * halves every halfLife heartbeats. A Provider whose penalty exceeds the
+ * suppress threshold stays excluded, however its probes go, until the penalty
+ * decayed below the reuse threshold. The penalty is capped so a Provider is
+ * suppressed for at most maximumSuppressRounds heartbeats after its last flap.
+ *
+ * Like ImprovedHeartbeatPolicy, this policy only re-includes Providers it
+ * excluded itself. The state is kept in primitive arrays indexed by the
+ * registry slot of the Provider (HeartbeatMonitorable.slot()), like the
+ * SlotState of the invocation policies, so every monitorable needs its own
+ * policy instance. The probe history of a Provider that is no longer monitored
+ * is dropped after the heartbeat, whether the policy excluded it is kept until
+ * it is included again or unregistered.
+ */
+public class DampedHeartbeatPolicy implements HeartbeatPolicy {
+
+	public static int DEFAULT_WINDOW_SIZE = 16;
+	public static int DEFAULT_CONSECUTIVE_SUCCESSES = 3;
+	public static double DEFAULT_MINIMUM_HEALTH_SCORE = 0.5;
+	public static double DEFAULT_FLAP_PENALTY = 1000;
+	public static double DEFAULT_SUPPRESS_THRESHOLD = 2000;
+	public static double DEFAULT_REUSE_THRESHOLD = 750;
+	public static int DEFAULT_HALF_LIFE = 15;
+	public static int DEFAULT_MAXIMUM_SUPPRESS_ROUNDS = 60;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private int consecutiveSuccesses = DEFAULT_CONSECUTIVE_SUCCESSES;
+	private double minimumHealthScore = DEFAULT_MINIMUM_HEALTH_SCORE;
+	private double flapPenalty = DEFAULT_FLAP_PENALTY;
+	private double suppressThreshold = DEFAULT_SUPPRESS_THRESHOLD;
+	private double reuseThreshold = DEFAULT_REUSE_THRESHOLD;
+	private double decayPerRound;
+	private double maximumPenalty;
+
+	/*
+	 * Provider of every slot and the heartbeat it was last probed in
+	 */
+	private Provider[] tracked = new Provider[INITIAL_CAPACITY];
+	private long[] lastProbed = new long[INITIAL_CAPACITY];
+	private long heartbeats;
+
+	/*
+	 * Probe outcomes, the lowest bit is the latest probe, 1 is a success
+	 */
+	private long[] outcomes = new long[INITIAL_CAPACITY];
+	private int[] samples = new int[INITIAL_CAPACITY];
+	private double[] penalties = new double[INITIAL_CAPACITY];
+	private boolean[] suppressed = new boolean[INITIAL_CAPACITY];
+	private boolean[] excludedByPolicy = new boolean[INITIAL_CAPACITY];
+
+	private long flaps;
+	private long suppressions;
+
+	public DampedHeartbeatPolicy() {
+		withDamping(DEFAULT_FLAP_PENALTY, DEFAULT_SUPPRESS_THRESHOLD, DEFAULT_REUSE_THRESHOLD, DEFAULT_HALF_LIFE, DEFAULT_MAXIMUM_SUPPRESS_ROUNDS);
+	}
+
+	/*
+	 * Number of probes (1..64) the health score is computed over
+	 */
+	public DampedHeartbeatPolicy withWindow(int windowSize, double minimumHealthScore) {
+		if (windowSize <= 0 || windowSize > Long.SIZE) {
+			throw new java.lang.IllegalArgumentException("Window size must be between 1 and 64");
+		}
+		if (minimumHealthScore < 0 || minimumHealthScore > 1) {
+			throw new java.lang.IllegalArgumentException("Minimum health score must be between 0 and 1");
+		}
+		if (consecutiveSuccesses > windowSize) {
+			throw new java.lang.IllegalArgumentException("Window must hold the consecutive successes");
+		}
+		this.windowSize = windowSize;
+		this.minimumHealthScore = minimumHealthScore;
+		return this;
+	}
+
+	/*
+	 * Successful probes in a row before an excluded Provider is included again
+	 */
+	public DampedHeartbeatPolicy withConsecutiveSuccesses(int consecutiveSuccesses) {
+		if (consecutiveSuccesses <= 0 || consecutiveSuccesses > windowSize) {
+			throw new java.lang.IllegalArgumentException("Consecutive successes must be between 1 and the window size");
+		}
+		this.consecutiveSuccesses = consecutiveSuccesses;
+		return this;
+	}
+
+	/*
+	 * Penalty of a flap, the thresholds to suppress and to reuse a Provider and
+	 * the decay of the penalty, in heartbeats
+	 */
+	public DampedHeartbeatPolicy withDamping(double flapPenalty, double suppressThreshold, double reuseThreshold, int halfLife, int maximumSuppressRounds) {
+		if (!(flapPenalty > 0) || !(reuseThreshold > 0) || !(suppressThreshold > reuseThreshold)) {
+			throw new java.lang.IllegalArgumentException("Penalty and thresholds must be positive, the suppress threshold above the reuse threshold");
+		}
+		if (halfLife <= 0 || maximumSuppressRounds <= 0) {
+			throw new java.lang.IllegalArgumentException("Half life and maximum suppress rounds must be positive");
+		}
+		this.flapPenalty = flapPenalty;
+		this.suppressThreshold = suppressThreshold;
+		this.reuseThreshold = reuseThreshold;
+		this.decayPerRound = Math.pow(0.5, 1.0 / halfLife);
+		// decays from the cap to the reuse threshold in maximumSuppressRounds
+		this.maximumPenalty = Math.max(suppressThreshold, reuseThreshold * Math.pow(2, (double) maximumSuppressRounds / halfLife));
+		return this;
+	}
+
+	@Override
+	public synchronized void apply(HeartbeatMonitorable monitorable) {
+		Collection<Provider> providers = monitorable.getProviders();
+		heartbeats++;
+		for (Provider provider : providers) {
+			int index = track(provider, monitorable.slot(provider));
+			if (index < 0) {
+				// unregistered meanwhile
+				continue;
+			}
+			lastProbed[index] = heartbeats;
+			boolean healthy = monitorable.probe(provider);
+			boolean wasHealthy = samples[index] == 0 || (outcomes[index] & 1) == 1;
+
+			outcomes[index] = (outcomes[index] << 1) | (healthy ? 1 : 0);
+			samples[index] = Math.min(samples[index] + 1, windowSize);
+
+			penalties[index] *= decayPerRound;
+			if (wasHealthy && !healthy) {
+				flaps++;
+				penalties[index] = Math.min(penalties[index] + flapPenalty, maximumPenalty);
+			}
+			if (!suppressed[index] && penalties[index] >= suppressThreshold) {
+				suppressed[index] = true;
+				suppressions++;
+			} else if (suppressed[index] && penalties[index] < reuseThreshold) {
+				suppressed[index] = false;
+			}
+
+			if (!healthy || suppressed[index]) {
+				if (monitorable.exclude(provider)) {
+					excludedByPolicy[index] = true;
+				}
+			} else if (excludedByPolicy[index] && isRecovered(index)) {
+				excludedByPolicy[index] = false;
+				monitorable.include(provider);
+			}
+		}
+		dropUnprobed(monitorable);
+	}
+
+	/*
+	 * Drops the probe history of the Providers that were not probed in this
+	 * heartbeat. Unregistered Providers are forgotten, the others are still
+	 * included again if the policy excluded them and they recover once they are
+	 * probed again.
+	 */
+	private void dropUnprobed(HeartbeatMonitorable monitorable) {
+		for (int index = 0; index < tracked.length; index++) {
+			if (tracked[index] == null || lastProbed[index] == heartbeats) {
+				continue;
+			}
+			if (monitorable.slot(tracked[index]) != index) {
+				tracked[index] = null;
+				excludedByPolicy[index] = false;
+			}
+			clearHistory(index);
+		}
+	}
+
+	private void clearHistory(int index) {
+		outcomes[index] = 0;
+		samples[index] = 0;
+		penalties[index] = 0;
+		suppressed[index] = false;
+	}
+
+	@Override
+	public synchronized HeartbeatPolicy copy() {
+		DampedHeartbeatPolicy copy = new DampedHeartbeatPolicy();
+		copy.windowSize = windowSize;
+		copy.consecutiveSuccesses = consecutiveSuccesses;
+		copy.minimumHealthScore = minimumHealthScore;
+		copy.flapPenalty = flapPenalty;
+		copy.suppressThreshold = suppressThreshold;
+		copy.reuseThreshold = reuseThreshold;
+		copy.decayPerRound = decayPerRound;
+		copy.maximumPenalty = maximumPenalty;
+		return copy;
+	}
+
+	private boolean isRecovered(int index) {
+		long recent = (1L << consecutiveSuccesses) - 1;
+		return (outcomes[index] & recent) == recent && healthScore(index) >= minimumHealthScore;
+	}
+
+	private double healthScore(int index) {
+		if (samples[index] == 0) {
+			return 1;
+		}
+		// samples never exceeds the window size
+		long window = samples[index] == Long.SIZE ? -1L : (1L << samples[index]) - 1;
+		return (double) Long.bitCount(outcomes[index] & window) / samples[index];
+	}
+
+	/*
+	 * Returns the slot of the Provider, a slot that was used by an unregistered
+	 * Provider starts over
+	 */
+	private int track(Provider provider, int slot) {
+		if (slot < 0 || tracked.length > slot && tracked[slot] == provider) {
+			return slot;
+		}
+		if (slot >= tracked.length) {
+			int capacity = Math.max(tracked.length * 2, slot + 1);
+			outcomes = Arrays.copyOf(outcomes, capacity);
+			samples = Arrays.copyOf(samples, capacity);
+			penalties = Arrays.copyOf(penalties, capacity);
+			suppressed = Arrays.copyOf(suppressed, capacity);
+			excludedByPolicy = Arrays.copyOf(excludedByPolicy, capacity);
+			tracked = Arrays.copyOf(tracked, capacity);
+			lastProbed = Arrays.copyOf(lastProbed, capacity);
+		}
+		tracked[slot] = provider;
+		excludedByPolicy[slot] = false;
+		clearHistory(slot);
+		return slot;
+	}
+
+	private int indexOf(Provider provider) {
+		for (int index = 0; index < tracked.length; index++) {
+			if (tracked[index] == provider) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Share of successful probes in the window, 1 for an unknown Provider
+	 */
+	public synchronized double getHealthScore(Provider provider) {
+		int index = indexOf(provider);
+		return index < 0 ? 1 : healthScore(index);
+	}
+
+	public synchronized double getPenalty(Provider provider) {
+		int index = indexOf(provider);
+		return index < 0 ? 0 : penalties[index];
+	}
+
+	public synchronized boolean isSuppressed(Provider provider) {
+		int index = indexOf(provider);
+		return index >= 0 && suppressed[index];
+	}
+
+	/*
+	 * Number of times a healthy Provider failed
+	 */
+	public synchronized long getFlapCount() {
+		return flaps;
+	}
+
+	/*
+	 * Number of times a Provider was suppressed
+	 */
+	public synchronized long getSuppressionCount() {
+		return suppressions;
+	}
+}
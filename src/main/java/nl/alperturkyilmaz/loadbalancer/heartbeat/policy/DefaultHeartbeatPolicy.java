@@ -9,7 +9,7 @@ public class DefaultHeartbeatPolicy implements HeartbeatPolicy {
 	public void apply(HeartbeatMonitorable monitorable) {
 		Collection<Provider> providers = monitorable.getProviders();
 		for (Provider provider : providers) {
-			if (provider.check() == false) {
+			if (monitorable.probe(provider) == false) {
 				monitorable.exclude(provider);
 			}
 		}
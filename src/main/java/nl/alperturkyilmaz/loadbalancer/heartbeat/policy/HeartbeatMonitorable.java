@@ -12,4 +12,28 @@ public interface HeartbeatMonitorable {
 
 	boolean exclude(Provider provider);
 
+	/*
+	 * Registry slot of the Provider, -1 if it is not registered. A slot does not
+	 * change while the Provider is registered and is reused after it is
+	 * unregistered, so policies can keep their state in arrays indexed by slot.
+	 */
+	default int slot(Provider provider) {
+		throw new java.lang.UnsupportedOperationException("Monitorable has no registry slots");
+	}
+
+	/*
+	 * Checks the health of the provider on behalf of a HeartbeatPolicy
+	 */
+	default boolean probe(Provider provider) {
+		return probe(provider, provider.check());
+	}
+
+	/*
+	 * Same as probe(), with the result of a check() made elsewhere, e.g. by a
+	 * shared HeartbeatService
+	 */
+	default boolean probe(Provider provider, boolean checkResult) {
+		return checkResult;
+	}
+
 }
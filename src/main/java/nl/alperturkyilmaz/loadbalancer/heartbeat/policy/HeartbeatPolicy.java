@@ -4,4 +4,12 @@ public interface HeartbeatPolicy {
 
 	public void apply(HeartbeatMonitorable monitorable);
 
+	/*
+	 * Policy with the same configuration and fresh state, used by
+	 * LoadBalancer.Builder.copy(). Stateless policies return themselves.
+	 */
+	default HeartbeatPolicy copy() {
+		return this;
+	}
+
 }
@@ -29,7 +29,7 @@ public class ImprovedHeartbeatPolicy implements HeartbeatPolicy {
 	public void apply(HeartbeatMonitorable monitorable) {
 		Collection<Provider> providers = monitorable.getProviders();
 		for (Provider provider : providers) {
-			if (provider.check() == false) {
+			if (monitorable.probe(provider) == false) {
 				// Hearbeat failed! Exclude provider from the alive list and store it
 				// When provider is alive again for threshold times, it will be included to the
 				// alive list.
@@ -51,4 +51,9 @@ public class ImprovedHeartbeatPolicy implements HeartbeatPolicy {
 			}
 		}
 	}
+
+	@Override
+	public HeartbeatPolicy copy() {
+		return new ImprovedHeartbeatPolicy(threshold);
+	}
 }
@@ -0,0 +1,56 @@
+package nl.alperturkyilmaz.loadbalancer.invocation.policy;
+
+/*
+ * Second generation invocation policy SPI.
+ * 
+ * The policy works on a dense ProviderSnapshot and returns an index instead of
+ * a Provider, and keeps its per-provider state in the primitive SlotState
+ * arrays owned by the registry instead of maps keyed by Provider. Together
+ * this keeps LoadBalancer.get() allocation free.
+ */
+public interface IndexedInvocationPolicy {
+
+	public static int NO_PROVIDER = -1;
+
+	/*
+	 * Number of long fields per slot the policy needs in SlotState
+	 */
+	default int getLongFieldCount() {
+		return 0;
+	}
+
+	/*
+	 * Number of double fields per slot the policy needs in SlotState
+	 */
+	default int getDoubleFieldCount() {
+		return 0;
+	}
+
+	/*
+	 * returns index of the next suitable Provider in the snapshot, NO_PROVIDER if
+	 * there is none
+	 */
+	int select(ProviderSnapshot providers, SlotState state);
+
+	/*
+	 * Called when a request served by the Provider in slot completed
+	 */
+	default void onComplete(int slot, SlotState state, long durationNanos, boolean succeeded) {
+	}
+
+	/*
+	 * Policy with the same configuration and fresh state, used by
+	 * LoadBalancer.Builder.copy(). Stateless policies return themselves.
+	 */
+	default IndexedInvocationPolicy copy() {
+		return this;
+	}
+
+	/*
+	 * Same as copy(), with its random choices seeded with seed, e.g. for
+	 * reproducible simulations
+	 */
+	default IndexedInvocationPolicy copy(long seed) {
+		return copy();
+	}
+}
@@ -0,0 +1,55 @@
+package nl.alperturkyilmaz.loadbalancer.invocation.policy;
+
+import java.util.List;
+
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Runs an InvocationPolicy implementation through the IndexedInvocationPolicy
+ * SPI. The policy is given the cached list view of the snapshot, so no wrapper
+ * is allocated per request.
+ */
+public class InvocationPolicyAdapter implements IndexedInvocationPolicy {
+
+	private final InvocationPolicy invocationPolicy;
+
+	public InvocationPolicyAdapter(InvocationPolicy invocationPolicy) {
+		if (invocationPolicy == null) {
+			throw new java.lang.IllegalArgumentException("Invocation policy can not be null");
+		}
+		this.invocationPolicy = invocationPolicy;
+	}
+
+	/*
+	 * Returns the policy itself if it already implements the indexed SPI, unless
+	 * a subclass overrides apply() below its select(), e.g. a subclass of
+	 * RoundRobinInvocationPolicy that only customizes apply(). Such policies run
+	 * through the adapter so the override is honored.
+	 */
+	public static IndexedInvocationPolicy adapt(InvocationPolicy invocationPolicy) {
+		if (invocationPolicy instanceof IndexedInvocationPolicy && !overridesApply(invocationPolicy)) {
+			return (IndexedInvocationPolicy) invocationPolicy;
+		}
+		return new InvocationPolicyAdapter(invocationPolicy);
+	}
+
+	private static boolean overridesApply(InvocationPolicy invocationPolicy) {
+		try {
+			Class<?> apply = invocationPolicy.getClass().getMethod("apply", List.class).getDeclaringClass();
+			Class<?> select = invocationPolicy.getClass().getMethod("select", ProviderSnapshot.class, SlotState.class).getDeclaringClass();
+			return apply != select && select.isAssignableFrom(apply);
+		} catch (NoSuchMethodException e) {
+			throw new java.lang.IllegalStateException("Invocation policy does not implement both SPIs", e);
+		}
+	}
+
+	public InvocationPolicy getInvocationPolicy() {
+		return invocationPolicy;
+	}
+
+	@Override
+	public int select(ProviderSnapshot providers, SlotState state) {
+		Provider provider = invocationPolicy.apply(providers.asList());
+		return provider == null ? NO_PROVIDER : providers.indexOf(provider);
+	}
+}
@@ -0,0 +1,105 @@
+package nl.alperturkyilmaz.loadbalancer.invocation.policy;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Power of two choices: two random Providers are compared and the one with
+ * fewer requests in flight is selected, ties go to the lower average latency.
+ * The average latency is an exponentially weighted moving average kept in
+ * SlotState.
+ */
+public class LeastOutstandingInvocationPolicy implements IndexedInvocationPolicy {
+
+	public static double DEFAULT_LATENCY_DECAY = 0.2;
+
+	private static final int AVERAGE_LATENCY = 0;
+
+	private final double decay;
+
+	/*
+	 * Random of a seeded policy, ThreadLocalRandom is used otherwise
+	 */
+	private final Random random;
+	private final long seed;
+
+	public LeastOutstandingInvocationPolicy() {
+		this(DEFAULT_LATENCY_DECAY);
+	}
+
+	/*
+	 * decay (0..1] is the weight of the latest latency in the average
+	 */
+	public LeastOutstandingInvocationPolicy(double decay) {
+		this(decay, null, 0);
+	}
+
+	/*
+	 * Reproducible selection, e.g. for simulations
+	 */
+	public LeastOutstandingInvocationPolicy(double decay, long seed) {
+		this(decay, new Random(seed), seed);
+	}
+
+	private LeastOutstandingInvocationPolicy(double decay, Random random, long seed) {
+		if (!(decay > 0 && decay <= 1)) {
+			throw new java.lang.IllegalArgumentException("Decay must be in (0, 1]");
+		}
+		this.decay = decay;
+		this.random = random;
+		this.seed = seed;
+	}
+
+	@Override
+	public int getDoubleFieldCount() {
+		return 1;
+	}
+
+	@Override
+	public int select(ProviderSnapshot providers, SlotState state) {
+		int size = providers.size();
+		if (size == 0) {
+			return NO_PROVIDER;
+		}
+		if (size == 1) {
+			return 0;
+		}
+		Random random = this.random != null ? this.random : ThreadLocalRandom.current();
+		int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		int firstSlot = providers.slot(first);
+		int secondSlot = providers.slot(second);
+		int byLoad = Integer.compare(state.getInFlight(firstSlot), state.getInFlight(secondSlot));
+		if (byLoad != 0) {
+			return byLoad < 0 ? first : second;
+		}
+		return state.getDouble(firstSlot, AVERAGE_LATENCY) <= state.getDouble(secondSlot, AVERAGE_LATENCY) ? first : second;
+	}
+
+	@Override
+	public void onComplete(int slot, SlotState state, long durationNanos, boolean succeeded) {
+		double current;
+		double updated;
+		do {
+			current = state.getDouble(slot, AVERAGE_LATENCY);
+			updated = current == 0 ? durationNanos : current + decay * (durationNanos - current);
+		} while (!state.compareAndSetDouble(slot, AVERAGE_LATENCY, current, updated));
+	}
+
+	/*
+	 * The average latencies live in SlotState, only a seeded Random is state of
+	 * the policy itself
+	 */
+	@Override
+	public IndexedInvocationPolicy copy() {
+		return random != null ? new LeastOutstandingInvocationPolicy(decay, seed) : this;
+	}
+
+	@Override
+	public IndexedInvocationPolicy copy(long seed) {
+		return new LeastOutstandingInvocationPolicy(decay, seed);
+	}
+}
@@ -0,0 +1,72 @@
+package nl.alperturkyilmaz.loadbalancer.invocation.policy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Immutable, dense snapshot of the available Providers. The Load Balancer
+ * publishes a new snapshot whenever a Provider is registered, excluded or
+ * included, so reading it on the request path needs neither a lock nor an
+ * allocation.
+ * 
+ * Every Provider also has a stable slot in the registry, the index of its
+ * state in SlotState, which does not change when other Providers come and go.
+ */
+public final class ProviderSnapshot {
+
+	public static final ProviderSnapshot EMPTY = new ProviderSnapshot(new Provider[0], new int[0]);
+
+	private final Provider[] providers;
+	private final int[] slots;
+	private final List<Provider> list;
+
+	public ProviderSnapshot(Provider[] providers, int[] slots) {
+		if (providers.length != slots.length) {
+			throw new java.lang.IllegalArgumentException("Every provider needs a slot");
+		}
+		this.providers = providers;
+		this.slots = slots;
+		this.list = Collections.unmodifiableList(Arrays.asList(providers));
+	}
+
+	public int size() {
+		return providers.length;
+	}
+
+	public boolean isEmpty() {
+		return providers.length == 0;
+	}
+
+	public Provider get(int index) {
+		return providers[index];
+	}
+
+	/*
+	 * Registry slot of the Provider at index
+	 */
+	public int slot(int index) {
+		return slots[index];
+	}
+
+	/*
+	 * Index of the Provider in this snapshot, -1 if it is not available
+	 */
+	public int indexOf(Provider provider) {
+		for (int i = 0; i < providers.length; i++) {
+			if (providers[i] == provider) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * The Providers as an unmodifiable list, created once per snapshot
+	 */
+	public List<Provider> asList() {
+		return list;
+	}
+}
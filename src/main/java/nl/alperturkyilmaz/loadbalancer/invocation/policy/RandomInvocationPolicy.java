@@ -5,8 +5,22 @@ import java.util.Random;
 
 import nl.alperturkyilmaz.loadbalancer.provider.Provider;
 
-public class RandomInvocationPolicy implements InvocationPolicy {
+public class RandomInvocationPolicy implements InvocationPolicy, IndexedInvocationPolicy {
 	Random random = new Random();
+	private boolean seeded;
+	private long seed;
+
+	public RandomInvocationPolicy() {
+	}
+
+	/*
+	 * Reproducible selection, e.g. for simulations
+	 */
+	public RandomInvocationPolicy(long seed) {
+		this.random = new Random(seed);
+		this.seeded = true;
+		this.seed = seed;
+	}
 
 	public Provider apply(List<Provider> providers) {
 		if (providers != null && providers.isEmpty()) {
@@ -14,4 +28,25 @@ public class RandomInvocationPolicy implements InvocationPolicy {
 		}
 		return providers.get(random.nextInt(providers.size()));
 	}
+
+	@Override
+	public int select(ProviderSnapshot providers, SlotState state) {
+		if (providers.isEmpty()) {
+			return NO_PROVIDER;
+		}
+		return random.nextInt(providers.size());
+	}
+
+	/*
+	 * A seeded policy starts over from its seed
+	 */
+	@Override
+	public IndexedInvocationPolicy copy() {
+		return seeded ? new RandomInvocationPolicy(seed) : new RandomInvocationPolicy();
+	}
+
+	@Override
+	public IndexedInvocationPolicy copy(long seed) {
+		return new RandomInvocationPolicy(seed);
+	}
 }
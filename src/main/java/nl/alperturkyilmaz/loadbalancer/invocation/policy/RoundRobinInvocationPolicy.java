@@ -5,13 +5,35 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import nl.alperturkyilmaz.loadbalancer.provider.Provider;
 
-public class RoundRobinInvocationPolicy implements InvocationPolicy {
+public class RoundRobinInvocationPolicy implements InvocationPolicy, IndexedInvocationPolicy {
 	private AtomicInteger position = new AtomicInteger(0);
 
 	public Provider apply(List<Provider> providers) {
 		if (providers != null && providers.isEmpty()) {
 			return null;
 		}
-		return providers.get(position.getAndUpdate(p -> p = (p + 1) % providers.size()));
+		return providers.get(next(providers.size()));
+	}
+
+	@Override
+	public int select(ProviderSnapshot providers, SlotState state) {
+		if (providers.isEmpty()) {
+			return NO_PROVIDER;
+		}
+		return next(providers.size());
+	}
+
+	@Override
+	public IndexedInvocationPolicy copy() {
+		return new RoundRobinInvocationPolicy();
+	}
+
+	private int next(int size) {
+		int current;
+		do {
+			current = position.get();
+			// the list may have shrunk since the last call
+		} while (!position.compareAndSet(current, (current + 1) % size));
+		return current % size;
 	}
 }
@@ -0,0 +1,95 @@
+package nl.alperturkyilmaz.loadbalancer.invocation.policy;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Per-slot primitive state owned by the provider registry of a Load Balancer.
+ * 
+ * Every registry slot has the requests in flight, maintained by the Load
+ * Balancer, plus the long and double fields an IndexedInvocationPolicy asked
+ * for. The fields are laid out slot by slot in flat atomic arrays, doubles are
+ * stored as their raw long bits, so reading and updating them is thread-safe
+ * and does not allocate.
+ */
+public final class SlotState {
+
+	private final int slots;
+	private final int longFields;
+	private final int doubleFields;
+	private final AtomicIntegerArray inFlight;
+	private final AtomicLongArray longs;
+	private final AtomicLongArray doubles;
+
+	public SlotState(int slots, int longFields, int doubleFields) {
+		if (slots < 0 || longFields < 0 || doubleFields < 0) {
+			throw new java.lang.IllegalArgumentException("Slot and field counts can not be negative");
+		}
+		this.slots = slots;
+		this.longFields = longFields;
+		this.doubleFields = doubleFields;
+		this.inFlight = new AtomicIntegerArray(slots);
+		this.longs = new AtomicLongArray(slots * longFields);
+		this.doubles = new AtomicLongArray(slots * doubleFields);
+	}
+
+	public int getSlotCount() {
+		return slots;
+	}
+
+	/*
+	 * Requests selected for the slot and not completed yet
+	 */
+	public int getInFlight(int slot) {
+		return inFlight.get(slot);
+	}
+
+	public void incrementInFlight(int slot) {
+		inFlight.incrementAndGet(slot);
+	}
+
+	public void decrementInFlight(int slot) {
+		inFlight.decrementAndGet(slot);
+	}
+
+	public long getLong(int slot, int field) {
+		return longs.get(slot * longFields + field);
+	}
+
+	public void setLong(int slot, int field, long value) {
+		longs.set(slot * longFields + field, value);
+	}
+
+	public long addLong(int slot, int field, long delta) {
+		return longs.addAndGet(slot * longFields + field, delta);
+	}
+
+	public boolean compareAndSetLong(int slot, int field, long expected, long value) {
+		return longs.compareAndSet(slot * longFields + field, expected, value);
+	}
+
+	public double getDouble(int slot, int field) {
+		return Double.longBitsToDouble(doubles.get(slot * doubleFields + field));
+	}
+
+	public void setDouble(int slot, int field, double value) {
+		doubles.set(slot * doubleFields + field, Double.doubleToRawLongBits(value));
+	}
+
+	public boolean compareAndSetDouble(int slot, int field, double expected, double value) {
+		return doubles.compareAndSet(slot * doubleFields + field, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(value));
+	}
+
+	/*
+	 * Resets the fields of a slot that is handed to a new Provider
+	 */
+	public void clear(int slot) {
+		inFlight.set(slot, 0);
+		for (int field = 0; field < longFields; field++) {
+			setLong(slot, field, 0);
+		}
+		for (int field = 0; field < doubleFields; field++) {
+			setDouble(slot, field, 0);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package nl.alperturkyilmaz.loadbalancer.priority;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Admission control by RequestPriority.
+ * 
+ * Every lane can reserve a share of the Cluster Capacity. A lane may only use
+ * the capacity that is not kept free for the unused reservations of the other
+ * lanes, so even the least critical lane gets its reservation while the more
+ * critical ones saturate the cluster. When the cluster is contended, a lane
+ * that is above its reservation is limited to its weighted fair share, among
+ * the lanes with requests in flight, of the capacity it may use.
+ * 
+ * Admission is a CAS on the cluster request count, there are no locks on the
+ * request path. The lanes of a Load Balancer are a frozen copy of the
+ * configured ones and can not be changed anymore.
+ */
+public class PriorityLanes {
+
+	public static int UNLIMITED_CAPACITY = -1;
+	public static double DEFAULT_CONTENTION_THRESHOLD = 0.75;
+
+	private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+	/*
+	 * Share of the Cluster Capacity reserved for each lane
+	 */
+	private final double[] reservedShares;
+
+	/*
+	 * Weights of the lanes while the cluster is contended
+	 */
+	private final int[] weights;
+
+	/*
+	 * Share of the Cluster Capacity in use above which the cluster is contended
+	 */
+	private volatile double contentionThreshold;
+
+	private final boolean frozen;
+
+	private final AtomicIntegerArray inFlight = new AtomicIntegerArray(PRIORITIES.length);
+	private final LongAdder[] admitted = new LongAdder[PRIORITIES.length];
+	private final LongAdder[] shed = new LongAdder[PRIORITIES.length];
+
+	public PriorityLanes() {
+		this(new double[PRIORITIES.length], defaultWeights(), DEFAULT_CONTENTION_THRESHOLD, false);
+	}
+
+	/*
+	 * The configuration is copied in the constructor, so it is safely published
+	 * with the final fields of a frozen copy
+	 */
+	private PriorityLanes(double[] reservedShares, int[] weights, double contentionThreshold, boolean frozen) {
+		this.reservedShares = reservedShares.clone();
+		this.weights = weights.clone();
+		this.contentionThreshold = contentionThreshold;
+		this.frozen = frozen;
+		for (int lane = 0; lane < PRIORITIES.length; lane++) {
+			admitted[lane] = new LongAdder();
+			shed[lane] = new LongAdder();
+		}
+	}
+
+	private static int[] defaultWeights() {
+		int[] weights = new int[PRIORITIES.length];
+		for (int lane = 0; lane < PRIORITIES.length; lane++) {
+			weights[lane] = PRIORITIES[lane].getDefaultWeight();
+		}
+		return weights;
+	}
+
+	/*
+	 * Reserves reservedShare (0..1) of the Cluster Capacity for the priority and
+	 * sets its weight for fair sharing while the cluster is contended
+	 */
+	public PriorityLanes withLane(RequestPriority priority, double reservedShare, int weight) {
+		checkNotFrozen();
+		if (reservedShare < 0 || reservedShare > 1) {
+			throw new java.lang.IllegalArgumentException("Reserved share must be between 0 and 1");
+		}
+		if (weight <= 0) {
+			throw new java.lang.IllegalArgumentException("Weight must be positive");
+		}
+		double totalReserved = reservedShare;
+		for (RequestPriority other : PRIORITIES) {
+			if (other != priority) {
+				totalReserved += reservedShares[other.ordinal()];
+			}
+		}
+		if (totalReserved > 1) {
+			throw new java.lang.IllegalArgumentException("Reserved shares of all priorities can not exceed 1");
+		}
+		reservedShares[priority.ordinal()] = reservedShare;
+		weights[priority.ordinal()] = weight;
+		return this;
+	}
+
+	/*
+	 * Lanes with the same configuration and no requests
+	 */
+	public PriorityLanes copy() {
+		return new PriorityLanes(reservedShares, weights, contentionThreshold, false);
+	}
+
+	/*
+	 * Same as copy(), the configuration of the copy can not be changed. Used by
+	 * the Load Balancer, whose request path reads it without locking.
+	 */
+	public PriorityLanes frozenCopy() {
+		return new PriorityLanes(reservedShares, weights, contentionThreshold, true);
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	public PriorityLanes withContentionThreshold(double contentionThreshold) {
+		checkNotFrozen();
+		if (contentionThreshold <= 0 || contentionThreshold > 1) {
+			throw new java.lang.IllegalArgumentException("Contention threshold must be in (0, 1]");
+		}
+		this.contentionThreshold = contentionThreshold;
+		return this;
+	}
+
+	/*
+	 * Admits the request and reserves a slot in clusterInFlight if the Cluster
+	 * Capacity and the lane rules allow it, counts it as shed o.w. A negative
+	 * clusterCapacity (UNLIMITED_CAPACITY) admits every request.
+	 */
+	public boolean tryAdmit(RequestPriority priority, AtomicInteger clusterInFlight, int clusterCapacity) {
+		int lane = priority.ordinal();
+		if (clusterCapacity < 0) {
+			clusterInFlight.incrementAndGet();
+			return admit(lane);
+		}
+
+		int limit = clusterCapacity;
+		for (int other = 0; other < PRIORITIES.length; other++) {
+			if (other != lane) {
+				limit -= Math.max(0, reserved(other, clusterCapacity) - inFlight.get(other));
+			}
+		}
+		int laneInFlight = inFlight.get(lane);
+		boolean aboveReservation = laneInFlight >= reserved(lane, clusterCapacity);
+		int contentionLevel = (int) (clusterCapacity * contentionThreshold);
+
+		int current;
+		do {
+			current = clusterInFlight.get();
+			if (current >= limit || (aboveReservation && current >= contentionLevel && laneInFlight >= fairShare(lane, limit))) {
+				shed[lane].increment();
+				return false;
+			}
+		} while (!clusterInFlight.compareAndSet(current, current + 1));
+		return admit(lane);
+	}
+
+	/*
+	 * Releases the lane slot of a request admitted by tryAdmit
+	 */
+	public void release(RequestPriority priority) {
+		inFlight.decrementAndGet(priority.ordinal());
+	}
+
+	/*
+	 * Releases the lane slot of a request admitted by tryAdmit that could not be
+	 * served afterwards, e.g. since it was rate limited or no Provider was
+	 * available, and counts it as shed instead of admitted
+	 */
+	public void reject(RequestPriority priority) {
+		int lane = priority.ordinal();
+		inFlight.decrementAndGet(lane);
+		admitted[lane].decrement();
+		shed[lane].increment();
+	}
+
+	public int getInFlight(RequestPriority priority) {
+		return inFlight.get(priority.ordinal());
+	}
+
+	public long getAdmittedCount(RequestPriority priority) {
+		return admitted[priority.ordinal()].sum();
+	}
+
+	public long getShedCount(RequestPriority priority) {
+		return shed[priority.ordinal()].sum();
+	}
+
+	private boolean admit(int lane) {
+		inFlight.incrementAndGet(lane);
+		admitted[lane].increment();
+		return true;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new java.lang.IllegalStateException("Priority lanes of a Load Balancer can not be changed");
+		}
+	}
+
+	private int reserved(int lane, int clusterCapacity) {
+		return (int) (clusterCapacity * reservedShares[lane]);
+	}
+
+	/*
+	 * Weighted share of the lane among the lanes with requests in flight, of the
+	 * capacity left to it by the unused reservations of the other lanes
+	 */
+	private int fairShare(int lane, int capacity) {
+		int totalWeight = weights[lane];
+		for (int other = 0; other < PRIORITIES.length; other++) {
+			if (other != lane && inFlight.get(other) > 0) {
+				totalWeight += weights[other];
+			}
+		}
+		return Math.max(1, (int) ((long) capacity * weights[lane] / totalWeight));
+	}
+}
@@ -0,0 +1,36 @@
+package nl.alperturkyilmaz.loadbalancer.priority;
+
+/*
+ * Request classes, from the most to the least critical. Near the Cluster
+ * Capacity the less critical classes are shed first.
+ */
+public enum RequestPriority {
+	/*
+	 * Latency critical user traffic
+	 */
+	CRITICAL(4),
+
+	/*
+	 * Default class of LoadBalancer.get()
+	 */
+	NORMAL(2),
+
+	/*
+	 * Background traffic that can be retried later
+	 */
+	BATCH(1);
+
+	private final int defaultWeight;
+
+	RequestPriority(int defaultWeight) {
+		this.defaultWeight = defaultWeight;
+	}
+
+	/*
+	 * Weight of the priority lane while the cluster is contended, unless
+	 * configured otherwise
+	 */
+	public int getDefaultWeight() {
+		return defaultWeight;
+	}
+}
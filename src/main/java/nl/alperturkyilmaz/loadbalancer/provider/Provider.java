@@ -20,6 +20,15 @@ public class Provider {
 		return getId();
 	}
 
+	/*
+	 * Serves a request with a payload, e.g. an element of a stream dispatched by
+	 * StreamingDispatcher. Returns get() by default, Providers that need the
+	 * payload override it.
+	 */
+	public String get(Object request) {
+		return get();
+	}
+
 	public String getId() {
 		return id;
 	}
@@ -28,4 +37,14 @@ public class Provider {
 		return true;
 	}
 
+	/*
+	 * Cancellation hook, called when the caller of a get() running on
+	 * invocationThread gave up waiting for it. Interrupts the thread by default,
+	 * Providers blocked in a non-interruptible way (e.g. socket I/O) can override
+	 * it to release the resource get() is blocked on.
+	 */
+	public void cancel(Thread invocationThread) {
+		invocationThread.interrupt();
+	}
+
 }
@@ -0,0 +1,104 @@
+package nl.alperturkyilmaz.loadbalancer.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lock-free token bucket.
+ * 
+ * Implemented as the equivalent generic cell rate algorithm: the bucket keeps
+ * the theoretical arrival time of the next permit, tokens are refilled lazily
+ * from the time passed since then, so there is no refill thread. Taking a
+ * permit is a single CAS, which keeps the limiter exact under contention.
+ */
+public class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	/*
+	 * Immutable so that the rate can be replaced atomically at runtime
+	 */
+	private static final class Rate {
+		final double permitsPerSecond;
+		final int burst;
+
+		/*
+		 * Time it takes to refill one token
+		 */
+		final long emissionIntervalNanos;
+
+		/*
+		 * How far the theoretical arrival time can be ahead of now, i.e. the
+		 * bucket size minus one token
+		 */
+		final long burstToleranceNanos;
+
+		Rate(double permitsPerSecond, int burst) {
+			if (!(permitsPerSecond > 0)) {
+				throw new java.lang.IllegalArgumentException("Permits per second must be positive");
+			}
+			if (burst <= 0) {
+				throw new java.lang.IllegalArgumentException("Burst must be positive");
+			}
+			this.permitsPerSecond = permitsPerSecond;
+			this.burst = burst;
+			this.emissionIntervalNanos = Math.max(1L, (long) (NANOS_PER_SECOND / permitsPerSecond));
+			this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+		}
+	}
+
+	private volatile Rate rate;
+
+	/*
+	 * Theoretical arrival time of the next permit, a full bucket initially
+	 */
+	private final AtomicLong theoreticalArrivalTime = new AtomicLong(Long.MIN_VALUE);
+
+	public TokenBucket(double permitsPerSecond, int burst) {
+		this.rate = new Rate(permitsPerSecond, burst);
+	}
+
+	public boolean tryAcquire() {
+		return tryAcquire(System.nanoTime());
+	}
+
+	/*
+	 * Takes a token if available at the given System.nanoTime() compatible time
+	 */
+	public boolean tryAcquire(long nowNanos) {
+		Rate current = rate;
+		long arrivalTime;
+		long next;
+		do {
+			arrivalTime = theoreticalArrivalTime.get();
+			long base = Math.max(arrivalTime, nowNanos);
+			if (base - nowNanos > current.burstToleranceNanos) {
+				return false;
+			}
+			next = base + current.emissionIntervalNanos;
+		} while (!theoreticalArrivalTime.compareAndSet(arrivalTime, next));
+		return true;
+	}
+
+	/*
+	 * Gives back a token taken by tryAcquire() that was not used, e.g. since the
+	 * request could not be served anyway
+	 */
+	public void refund() {
+		theoreticalArrivalTime.addAndGet(-rate.emissionIntervalNanos);
+	}
+
+	/*
+	 * Changes the rate at runtime, tokens already taken stay taken
+	 */
+	public void setRate(double permitsPerSecond, int burst) {
+		rate = new Rate(permitsPerSecond, burst);
+	}
+
+	public double getPermitsPerSecond() {
+		return rate.permitsPerSecond;
+	}
+
+	public int getBurst() {
+		return rate.burst;
+	}
+}
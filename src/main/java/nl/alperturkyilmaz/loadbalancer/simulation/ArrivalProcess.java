@@ -0,0 +1,45 @@
+package nl.alperturkyilmaz.loadbalancer.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Open-loop request arrivals of a Simulation
+ */
+public interface ArrivalProcess {
+
+	public static long NO_MORE_ARRIVALS = -1;
+
+	/*
+	 * Virtual time of the arrival after the one at nowNanos, NO_MORE_ARRIVALS if
+	 * the process is exhausted
+	 */
+	long nextArrivalNanos(long nowNanos, Random random);
+
+	/*
+	 * Poisson arrivals with the given mean rate
+	 */
+	static ArrivalProcess poisson(double requestsPerSecond) {
+		if (!(requestsPerSecond > 0)) {
+			throw new java.lang.IllegalArgumentException("Request rate must be positive");
+		}
+		double meanInterarrivalNanos = 1e9 / requestsPerSecond;
+		return (nowNanos, random) -> nowNanos + (long) (-meanInterarrivalNanos * Math.log(1 - random.nextDouble()));
+	}
+
+	/*
+	 * Replays recorded arrival times, in nanoseconds from the start of the trace
+	 */
+	static ArrivalProcess trace(long[] arrivalNanos) {
+		long[] sorted = arrivalNanos.clone();
+		Arrays.sort(sorted);
+		return new ArrivalProcess() {
+			private int next = 0;
+
+			@Override
+			public long nextArrivalNanos(long nowNanos, Random random) {
+				return next < sorted.length ? sorted[next++] : NO_MORE_ARRIVALS;
+			}
+		};
+	}
+}
@@ -0,0 +1,38 @@
+package nl.alperturkyilmaz.loadbalancer.simulation;
+
+import java.time.Duration;
+import java.util.Random;
+
+/*
+ * Service time of a SyntheticProvider
+ */
+public interface LatencyDistribution {
+
+	long sampleNanos(Random random);
+
+	static LatencyDistribution fixed(Duration latency) {
+		long nanos = latency.toNanos();
+		return random -> nanos;
+	}
+
+	static LatencyDistribution exponential(Duration mean) {
+		double meanNanos = mean.toNanos();
+		return random -> (long) (-meanNanos * Math.log(1 - random.nextDouble()));
+	}
+
+	/*
+	 * Log-normal around the median, sigma controls the length of the tail
+	 */
+	static LatencyDistribution logNormal(Duration median, double sigma) {
+		double mu = Math.log(median.toNanos());
+		return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+	}
+
+	/*
+	 * Samples the slow distribution with the given probability, e.g. to model
+	 * garbage collection pauses or cache misses
+	 */
+	static LatencyDistribution mixture(LatencyDistribution fast, double slowProbability, LatencyDistribution slow) {
+		return random -> random.nextDouble() < slowProbability ? slow.sampleNanos(random) : fast.sampleNanos(random);
+	}
+}
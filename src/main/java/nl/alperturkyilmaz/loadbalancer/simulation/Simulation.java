@@ -0,0 +1,338 @@
+package nl.alperturkyilmaz.loadbalancer.simulation;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatMonitorable;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Deterministic discrete-event simulation of a LoadBalancer.
+ * 
+ * The real LoadBalancer, InvocationPolicy and HeartbeatPolicy are driven on a
+ * VirtualClock: requests are admitted and routed with LoadBalancer.select(),
+ * SyntheticProviders serve them in virtual time and LoadBalancer.complete()
+ * releases the capacity when they are answered. The heartbeat policy is applied
+ * every heartbeat period of virtual time. Hours of traffic are simulated in
+ * seconds and the same seed always produces the same report: the simulation
+ * seed also seeds the invocation policy, replacing a seed of its own.
+ * 
+ * The LoadBalancer.Builder must not have a heartbeat policy of its own, the
+ * simulation applies it on the virtual clock instead.
+ */
+public class Simulation {
+
+	public static long DEFAULT_SEED = 42;
+
+	private static final int ARRIVAL = 0;
+	private static final int COMPLETION = 1;
+	private static final int HEARTBEAT = 2;
+
+	private static final class Event implements Comparable<Event> {
+		final long timeNanos;
+		final long sequence;
+		final int type;
+		final Request request;
+
+		Event(long timeNanos, long sequence, int type, Request request) {
+			this.timeNanos = timeNanos;
+			this.sequence = sequence;
+			this.type = type;
+			this.request = request;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			int byTime = Long.compare(timeNanos, other.timeNanos);
+			return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private static final class Request {
+		final long arrivalNanos;
+		final Provider provider;
+		final ProviderState state;
+		long serviceNanos;
+		boolean success;
+
+		Request(long arrivalNanos, Provider provider, ProviderState state) {
+			this.arrivalNanos = arrivalNanos;
+			this.provider = provider;
+			this.state = state;
+		}
+	}
+
+	private static final class ProviderState {
+		final SyntheticProvider provider;
+		final ArrayDeque<Request> queue = new ArrayDeque<>();
+		int busy;
+		long busyNanos;
+		long requests;
+
+		ProviderState(SyntheticProvider provider) {
+			this.provider = provider;
+		}
+	}
+
+	/*
+	 * Counts the exclusions and inclusions of the heartbeat policy
+	 */
+	private static final class CountingMonitorable implements HeartbeatMonitorable {
+		final HeartbeatMonitorable delegate;
+		long exclusions;
+		long inclusions;
+
+		CountingMonitorable(HeartbeatMonitorable delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Collection<Provider> getProviders() {
+			return delegate.getProviders();
+		}
+
+		@Override
+		public boolean include(Provider provider) {
+			boolean included = delegate.include(provider);
+			if (included) {
+				inclusions++;
+			}
+			return included;
+		}
+
+		@Override
+		public boolean exclude(Provider provider) {
+			boolean excluded = delegate.exclude(provider);
+			if (excluded) {
+				exclusions++;
+			}
+			return excluded;
+		}
+
+		@Override
+		public int slot(Provider provider) {
+			return delegate.slot(provider);
+		}
+
+		@Override
+		public boolean probe(Provider provider) {
+			return delegate.probe(provider);
+		}
+
+		@Override
+		public boolean probe(Provider provider, boolean checkResult) {
+			return delegate.probe(provider, checkResult);
+		}
+	}
+
+	private LoadBalancer.Builder loadBalancerBuilder = new LoadBalancer.Builder();
+	private List<SyntheticProvider> providers = new ArrayList<>();
+	private HeartbeatPolicy heartbeatPolicy;
+	private long heartbeatPeriodNanos = Duration.ofSeconds(LoadBalancer.DEFAULT_HEARTBEAT_CONTROL_PERIOD).toNanos();
+	private ArrivalProcess arrivals = ArrivalProcess.poisson(100);
+	private long durationNanos = Duration.ofHours(1).toNanos();
+	private long seed = DEFAULT_SEED;
+
+	public static class Builder {
+		private final Simulation simulation = new Simulation();
+
+		/*
+		 * Load Balancer configuration to simulate, the providers and the clock are
+		 * set by the simulation on a copy of the builder. Heartbeats are configured
+		 * with withHeartbeatPolicy() instead.
+		 */
+		public Builder withLoadBalancer(LoadBalancer.Builder loadBalancerBuilder) {
+			if (loadBalancerBuilder.hasHeartbeatPolicy()) {
+				throw new java.lang.IllegalArgumentException("The Load Balancer must not have a heartbeat policy, use withHeartbeatPolicy() of the simulation");
+			}
+			simulation.loadBalancerBuilder = loadBalancerBuilder.copy();
+			return this;
+		}
+
+		public Builder withProvider(SyntheticProvider provider) {
+			simulation.providers.add(provider);
+			return this;
+		}
+
+		public Builder withProviders(int count, java.util.function.Supplier<SyntheticProvider> providerFactory) {
+			for (int i = 0; i < count; i++) {
+				simulation.providers.add(providerFactory.get());
+			}
+			return this;
+		}
+
+		public Builder withHeartbeatPolicy(HeartbeatPolicy heartbeatPolicy, Duration period) {
+			simulation.heartbeatPolicy = heartbeatPolicy;
+			simulation.heartbeatPeriodNanos = period.toNanos();
+			return this;
+		}
+
+		public Builder withArrivals(ArrivalProcess arrivals) {
+			simulation.arrivals = arrivals;
+			return this;
+		}
+
+		/*
+		 * Simulated time during which requests arrive, requests still in service
+		 * at the end are completed
+		 */
+		public Builder withDuration(Duration duration) {
+			simulation.durationNanos = duration.toNanos();
+			return this;
+		}
+
+		public Builder withSeed(long seed) {
+			simulation.seed = seed;
+			return this;
+		}
+
+		public Simulation build() {
+			if (simulation.providers.isEmpty()) {
+				throw new java.lang.IllegalArgumentException("Simulation requires at least one provider");
+			}
+			return simulation;
+		}
+	}
+
+	private Simulation() {
+	}
+
+	private final PriorityQueue<Event> events = new PriorityQueue<>();
+	private long eventSequence;
+
+	private void schedule(long timeNanos, int type, Request request) {
+		events.add(new Event(timeNanos, eventSequence++, type, request));
+	}
+
+	/*
+	 * Runs the simulation, a Simulation instance can only be run once
+	 */
+	public SimulationReport run() {
+		VirtualClock clock = new VirtualClock();
+		Random arrivalRandom = new Random(seed);
+		Map<Provider, ProviderState> states = new IdentityHashMap<>();
+		List<ProviderState> stateList = new ArrayList<>();
+		for (int i = 0; i < providers.size(); i++) {
+			SyntheticProvider provider = providers.get(i);
+			provider.attach(clock, new Random(seed * 31 + i + 1));
+			ProviderState state = new ProviderState(provider);
+			states.put(provider, state);
+			stateList.add(state);
+		}
+
+		// the Providers are seeded with seed * 31 + 1 and up
+		LoadBalancer loadBalancer = loadBalancerBuilder.maximumAllowedProviders(Math.max(providers.size(), LoadBalancer.DEFAULT_MAXIMUM_REGISTERED_PROVIDERS))
+														.withProviders(new ArrayList<>(providers))
+														.withNanoClock(clock)
+														.withSeed(seed * 31)
+														.build();
+		CountingMonitorable monitorable = new CountingMonitorable(loadBalancer);
+
+		long requests = 0;
+		long rejected = 0;
+		long failed = 0;
+		long[] latencies = new long[1024];
+		int latencyCount = 0;
+
+		long firstArrival = arrivals.nextArrivalNanos(0, arrivalRandom);
+		if (firstArrival != ArrivalProcess.NO_MORE_ARRIVALS) {
+			schedule(firstArrival, ARRIVAL, null);
+		}
+		if (heartbeatPolicy != null) {
+			schedule(0, HEARTBEAT, null);
+		}
+
+		try {
+			while (!events.isEmpty()) {
+				Event event = events.poll();
+				if (event.type != COMPLETION && event.timeNanos > durationNanos) {
+					continue;
+				}
+				clock.advanceTo(event.timeNanos);
+				long now = event.timeNanos;
+
+				switch (event.type) {
+				case ARRIVAL:
+					requests++;
+					Provider selected = loadBalancer.select(RequestPriority.NORMAL);
+					if (selected == null) {
+						rejected++;
+					} else {
+						ProviderState state = states.get(selected);
+						Request request = new Request(now, selected, state);
+						state.requests++;
+						if (state.provider.getCapacity() <= SyntheticProvider.UNLIMITED_CAPACITY || state.busy < state.provider.getCapacity()) {
+							startService(request, now);
+						} else {
+							state.queue.add(request);
+						}
+					}
+					long nextArrival = arrivals.nextArrivalNanos(now, arrivalRandom);
+					if (nextArrival != ArrivalProcess.NO_MORE_ARRIVALS) {
+						schedule(Math.max(now, nextArrival), ARRIVAL, null);
+					}
+					break;
+
+				case COMPLETION:
+					Request completed = event.request;
+					ProviderState state = completed.state;
+					state.busy--;
+					state.busyNanos += completed.serviceNanos;
+					loadBalancer.complete(RequestPriority.NORMAL, completed.provider, now - completed.arrivalNanos, completed.success);
+					if (completed.success) {
+						if (latencyCount == latencies.length) {
+							latencies = Arrays.copyOf(latencies, latencies.length * 2);
+						}
+						latencies[latencyCount++] = now - completed.arrivalNanos;
+					} else {
+						failed++;
+					}
+					Request waiting = state.queue.poll();
+					if (waiting != null) {
+						startService(waiting, now);
+					}
+					break;
+
+				case HEARTBEAT:
+					heartbeatPolicy.apply(monitorable);
+					schedule(now + heartbeatPeriodNanos, HEARTBEAT, null);
+					break;
+
+				default:
+					throw new java.lang.IllegalStateException("Unknown event type " + event.type);
+				}
+			}
+		} finally {
+			loadBalancer.shutdown();
+		}
+
+		double[] utilization = new double[stateList.size()];
+		long[] providerRequests = new long[stateList.size()];
+		for (int i = 0; i < stateList.size(); i++) {
+			ProviderState state = stateList.get(i);
+			int capacity = Math.max(1, state.provider.getCapacity());
+			utilization[i] = durationNanos == 0 ? 0 : (double) state.busyNanos / ((double) durationNanos * capacity);
+			providerRequests[i] = state.requests;
+		}
+		return new SimulationReport(durationNanos, requests, rejected, failed, latencies, latencyCount, utilization, providerRequests, monitorable.exclusions,
+				monitorable.inclusions);
+	}
+
+	private void startService(Request request, long now) {
+		request.state.busy++;
+		request.serviceNanos = request.state.provider.sampleLatencyNanos();
+		request.success = request.state.provider.sampleSuccess();
+		schedule(now + request.serviceNanos, COMPLETION, request);
+	}
+}
@@ -0,0 +1,127 @@
+package nl.alperturkyilmaz.loadbalancer.simulation;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/*
+ * Outcome of a Simulation. Latencies are measured from the arrival of a
+ * request until its Provider answered, including the time spent in the queue
+ * of the Provider, and only cover successful requests.
+ */
+public class SimulationReport {
+
+	private final long simulatedNanos;
+	private final long requests;
+	private final long rejected;
+	private final long failed;
+	private final long[] sortedLatencies;
+	private final double[] providerUtilization;
+	private final long[] providerRequests;
+	private final long exclusions;
+	private final long inclusions;
+
+	SimulationReport(long simulatedNanos, long requests, long rejected, long failed, long[] latencies, int latencyCount, double[] providerUtilization,
+			long[] providerRequests, long exclusions, long inclusions) {
+		this.simulatedNanos = simulatedNanos;
+		this.requests = requests;
+		this.rejected = rejected;
+		this.failed = failed;
+		this.sortedLatencies = Arrays.copyOf(latencies, latencyCount);
+		Arrays.sort(this.sortedLatencies);
+		this.providerUtilization = providerUtilization;
+		this.providerRequests = providerRequests;
+		this.exclusions = exclusions;
+		this.inclusions = inclusions;
+	}
+
+	public Duration getSimulatedDuration() {
+		return Duration.ofNanos(simulatedNanos);
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getServed() {
+		return sortedLatencies.length;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public double getRejectRate() {
+		return requests == 0 ? 0 : (double) rejected / requests;
+	}
+
+	/*
+	 * Nearest-rank percentile (0..100) of the latencies of the successful
+	 * requests
+	 */
+	public Duration getLatencyPercentile(double percentile) {
+		if (sortedLatencies.length == 0) {
+			return Duration.ZERO;
+		}
+		int rank = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length);
+		return Duration.ofNanos(sortedLatencies[Math.min(sortedLatencies.length - 1, Math.max(0, rank - 1))]);
+	}
+
+	public Duration getP50() {
+		return getLatencyPercentile(50);
+	}
+
+	public Duration getP99() {
+		return getLatencyPercentile(99);
+	}
+
+	public Duration getP999() {
+		return getLatencyPercentile(99.9);
+	}
+
+	/*
+	 * Average share of busy capacity of the Provider at the given index, in
+	 * registration order. For Providers with unlimited capacity this is the
+	 * average number of requests in service.
+	 */
+	public double getProviderUtilization(int providerIndex) {
+		return providerUtilization[providerIndex];
+	}
+
+	public long getProviderRequests(int providerIndex) {
+		return providerRequests[providerIndex];
+	}
+
+	public int getProviderCount() {
+		return providerUtilization.length;
+	}
+
+	/*
+	 * Number of times the heartbeat policy excluded a Provider
+	 */
+	public long getExclusions() {
+		return exclusions;
+	}
+
+	/*
+	 * Number of times the heartbeat policy included a Provider back
+	 */
+	public long getInclusions() {
+		return inclusions;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("simulated=%s requests=%d served=%d rejected=%d (%.4f) failed=%d p50=%.3fms p99=%.3fms p999=%.3fms exclusions=%d inclusions=%d",
+				getSimulatedDuration(), requests, getServed(), rejected, getRejectRate(), failed, getP50().toNanos() / 1e6, getP99().toNanos() / 1e6,
+				getP999().toNanos() / 1e6, exclusions, inclusions));
+		for (int i = 0; i < providerUtilization.length; i++) {
+			builder.append(String.format("%n  provider[%d] requests=%d utilization=%.3f", i, providerRequests[i], providerUtilization[i]));
+		}
+		return builder.toString();
+	}
+}
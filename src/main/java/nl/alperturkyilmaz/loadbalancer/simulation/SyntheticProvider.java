@@ -0,0 +1,138 @@
+package nl.alperturkyilmaz.loadbalancer.simulation;
+
+import java.time.Duration;
+import java.util.Random;
+
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Provider model of a Simulation. It serves at most capacity requests at a
+ * time, further requests wait in its queue. While the provider is down its
+ * check() fails and the requests it serves fail.
+ */
+public class SyntheticProvider extends Provider {
+
+	public static int UNLIMITED_CAPACITY = 0;
+
+	private LatencyDistribution latency = LatencyDistribution.fixed(Duration.ofMillis(10));
+	private double failureProbability;
+	private double probeFailureProbability;
+	private int capacity = UNLIMITED_CAPACITY;
+
+	/*
+	 * Periodic outage, down for downNanos at the end of every periodNanos
+	 */
+	private long flapPeriodNanos;
+	private long flapDownNanos;
+	private long flapOffsetNanos;
+
+	/*
+	 * Random outages, exponential time between failures and to repair
+	 */
+	private double meanTimeBetweenFailuresNanos;
+	private double meanTimeToRepairNanos;
+	private long nextStateChangeNanos = -1;
+	private boolean randomlyDown;
+
+	private VirtualClock clock;
+	private Random random;
+
+	public SyntheticProvider withLatency(LatencyDistribution latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	public SyntheticProvider withFailureProbability(double failureProbability) {
+		this.failureProbability = failureProbability;
+		return this;
+	}
+
+	/*
+	 * Share of check() calls that fail while the provider is up, e.g. an
+	 * unreliable health endpoint
+	 */
+	public SyntheticProvider withProbeFailureProbability(double probeFailureProbability) {
+		this.probeFailureProbability = probeFailureProbability;
+		return this;
+	}
+
+	/*
+	 * Maximum number of requests served in parallel, the rest is queued
+	 */
+	public SyntheticProvider withCapacity(int capacity) {
+		this.capacity = capacity;
+		return this;
+	}
+
+	/*
+	 * Down for the last downtime of every period, starting at offset
+	 */
+	public SyntheticProvider withFlapping(Duration period, Duration downtime, Duration offset) {
+		if (downtime.compareTo(period) >= 0) {
+			throw new java.lang.IllegalArgumentException("Downtime must be shorter than the period");
+		}
+		this.flapPeriodNanos = period.toNanos();
+		this.flapDownNanos = downtime.toNanos();
+		this.flapOffsetNanos = offset.toNanos();
+		return this;
+	}
+
+	/*
+	 * Random outages with exponentially distributed up and down times
+	 */
+	public SyntheticProvider withOutages(Duration meanTimeBetweenFailures, Duration meanTimeToRepair) {
+		this.meanTimeBetweenFailuresNanos = meanTimeBetweenFailures.toNanos();
+		this.meanTimeToRepairNanos = meanTimeToRepair.toNanos();
+		return this;
+	}
+
+	void attach(VirtualClock clock, Random random) {
+		this.clock = clock;
+		this.random = random;
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	long sampleLatencyNanos() {
+		return latency.sampleNanos(random);
+	}
+
+	/*
+	 * Outcome of a request served at the current virtual time
+	 */
+	boolean sampleSuccess() {
+		return !isDown() && (failureProbability <= 0 || random.nextDouble() >= failureProbability);
+	}
+
+	boolean isDown() {
+		long now = clock.getAsLong();
+		if (flapPeriodNanos > 0 && Math.floorMod(now - flapOffsetNanos, flapPeriodNanos) >= flapPeriodNanos - flapDownNanos) {
+			return true;
+		}
+		if (meanTimeBetweenFailuresNanos > 0) {
+			if (nextStateChangeNanos < 0) {
+				nextStateChangeNanos = now + sampleExponential(meanTimeBetweenFailuresNanos);
+			}
+			while (now >= nextStateChangeNanos) {
+				randomlyDown = !randomlyDown;
+				nextStateChangeNanos += sampleExponential(randomlyDown ? meanTimeToRepairNanos : meanTimeBetweenFailuresNanos);
+			}
+			return randomlyDown;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean check() {
+		if (clock == null) {
+			return true;
+		}
+		return !isDown() && (probeFailureProbability <= 0 || random.nextDouble() >= probeFailureProbability);
+	}
+
+	private long sampleExponential(double meanNanos) {
+		return Math.max(1, (long) (-meanNanos * Math.log(1 - random.nextDouble())));
+	}
+}
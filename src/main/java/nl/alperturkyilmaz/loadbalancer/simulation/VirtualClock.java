@@ -0,0 +1,23 @@
+package nl.alperturkyilmaz.loadbalancer.simulation;
+
+import java.util.function.LongSupplier;
+
+/*
+ * Simulated System.nanoTime(), only advanced by the Simulation
+ */
+public class VirtualClock implements LongSupplier {
+
+	private long nowNanos;
+
+	@Override
+	public long getAsLong() {
+		return nowNanos;
+	}
+
+	void advanceTo(long nanos) {
+		if (nanos < nowNanos) {
+			throw new java.lang.IllegalStateException("Virtual clock can not go back in time");
+		}
+		nowNanos = nanos;
+	}
+}
@@ -0,0 +1,379 @@
+package nl.alperturkyilmaz.loadbalancer.stream;
+
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Subscriber of the requests and Subscription of the responses of a single
+ * dispatch. All signals are serialized by the drain loop, which is entered by
+ * whichever thread changes the state (downstream request, upstream signal,
+ * finished invocation, the retry timer or a Load Balancer event that frees
+ * capacity).
+ *
+ * Received requests wait in the pending queue until the Load Balancer has a
+ * Provider and capacity for them and the invocation executor has a free in
+ * flight permit. A request the Load Balancer rejects goes back to the queue,
+ * no thread waits for capacity.
+ */
+final class DispatchSubscription implements Subscriber<Object>, Subscription {
+
+	/*
+	 * A request and its response slot, used to keep the request order
+	 */
+	private static final class Slot {
+		final Object request;
+		final RequestPriority priority;
+		volatile String response;
+
+		Slot(Object request, RequestPriority priority) {
+			this.request = request;
+			this.priority = priority;
+		}
+	}
+
+	private final StreamingDispatcher dispatcher;
+	private final LoadBalancer loadBalancer;
+	private final Subscriber<? super String> downstream;
+
+	private volatile Subscription upstream;
+
+	/*
+	 * Requested by downstream and not yet emitted
+	 */
+	private final AtomicLong requested = new AtomicLong(0);
+
+	/*
+	 * Requested from upstream and not yet received
+	 */
+	private final AtomicLong outstanding = new AtomicLong(0);
+
+	/*
+	 * Received from upstream and not yet emitted to downstream
+	 */
+	private final AtomicInteger held = new AtomicInteger(0);
+
+	/*
+	 * Received from upstream and not handed to the invocation executor yet
+	 */
+	private final Deque<Slot> pending = new ConcurrentLinkedDeque<>();
+
+	/*
+	 * Handed to the invocation executor but not admitted by the Load Balancer
+	 * yet, the Load Balancer does not count them in its capacity
+	 */
+	private final AtomicInteger notStarted = new AtomicInteger(0);
+
+	private final AtomicInteger wip = new AtomicInteger(0);
+
+	private final Queue<Slot> orderedResponses = new ConcurrentLinkedQueue<>();
+	private final Queue<String> unorderedResponses = new ConcurrentLinkedQueue<>();
+
+	private final AtomicBoolean retryScheduled = new AtomicBoolean(false);
+
+	/*
+	 * Set when a request was not admitted, pending requests are not dispatched
+	 * again before the retry delay passed or capacity was freed
+	 */
+	private volatile boolean backingOff;
+
+	private final AtomicBoolean terminated = new AtomicBoolean(false);
+	private volatile boolean done;
+	private volatile boolean cancelled;
+	private volatile Throwable error;
+
+	DispatchSubscription(StreamingDispatcher dispatcher, Subscriber<? super String> downstream) {
+		this.dispatcher = dispatcher;
+		this.loadBalancer = dispatcher.getLoadBalancer();
+		this.downstream = downstream;
+	}
+
+	@Override
+	public void onSubscribe(Subscription subscription) {
+		if (upstream != null) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		dispatcher.register(this);
+		downstream.onSubscribe(this);
+		drain();
+	}
+
+	@Override
+	public void onNext(Object request) {
+		if (cancelled || done) {
+			return;
+		}
+		outstanding.decrementAndGet();
+		held.incrementAndGet();
+		RequestPriority priority;
+		try {
+			priority = dispatcher.priorityOf(request);
+		} catch (RuntimeException e) {
+			fail(e);
+			return;
+		}
+		if (priority == null) {
+			fail(new java.lang.NullPointerException("Priority of request " + request + " is null"));
+			return;
+		}
+		Slot slot = new Slot(request, priority);
+		if (dispatcher.isOrdered()) {
+			orderedResponses.offer(slot);
+		}
+		pending.offer(slot);
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		if (done) {
+			return;
+		}
+		error = throwable;
+		done = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		drain();
+	}
+
+	@Override
+	public void request(long n) {
+		if (n <= 0) {
+			fail(new java.lang.IllegalArgumentException("Requested amount must be positive (rule 3.9): " + n));
+			return;
+		}
+		long current;
+		long next;
+		do {
+			current = requested.get();
+			next = current + n < 0 ? Long.MAX_VALUE : current + n;
+		} while (!requested.compareAndSet(current, next));
+		drain();
+	}
+
+	@Override
+	public void cancel() {
+		if (!cancelled) {
+			cancelled = true;
+			Subscription subscription = upstream;
+			if (subscription != null) {
+				subscription.cancel();
+			}
+			terminate();
+			drain();
+		}
+	}
+
+	/*
+	 * Runs on the invocation executor. A request the Load Balancer does not
+	 * admit goes back to the pending queue.
+	 */
+	private Boolean invoke(Slot slot) {
+		notStarted.decrementAndGet();
+		if (cancelled) {
+			return Boolean.TRUE;
+		}
+		Provider provider = loadBalancer.select(slot.priority);
+		if (provider == null) {
+			pending.offerFirst(slot);
+			backOff();
+			return Boolean.TRUE;
+		}
+		long start = loadBalancer.nanoTime();
+		boolean succeeded = false;
+		String response;
+		try {
+			response = provider.get(slot.request);
+			succeeded = true;
+		} catch (RuntimeException e) {
+			fail(e);
+			return Boolean.TRUE;
+		} finally {
+			loadBalancer.complete(slot.priority, provider, loadBalancer.nanoTime() - start, succeeded);
+		}
+		if (response == null) {
+			fail(new java.lang.NullPointerException("Provider " + provider.getId() + " returned null"));
+			return Boolean.TRUE;
+		}
+		slot.response = response;
+		if (!dispatcher.isOrdered()) {
+			unorderedResponses.offer(response);
+		}
+		return Boolean.TRUE;
+	}
+
+	/*
+	 * Called by the dispatcher when capacity was freed or a Provider was
+	 * included
+	 */
+	void capacityChanged() {
+		backingOff = false;
+		drain();
+	}
+
+	/*
+	 * Rate limits and permits of a shared executor free up without an event, so
+	 * a retry is scheduled as well
+	 */
+	private void backOff() {
+		backingOff = true;
+		if (retryScheduled.compareAndSet(false, true)) {
+			dispatcher.schedule(() -> {
+				retryScheduled.set(false);
+				backingOff = false;
+				drain();
+			});
+		}
+	}
+
+	private void fail(Throwable throwable) {
+		error = throwable;
+		done = true;
+		Subscription subscription = upstream;
+		if (subscription != null) {
+			subscription.cancel();
+		}
+		drain();
+	}
+
+	private String pollResponse() {
+		if (dispatcher.isOrdered()) {
+			Slot head = orderedResponses.peek();
+			if (head == null || head.response == null) {
+				return null;
+			}
+			orderedResponses.poll();
+			return head.response;
+		}
+		return unorderedResponses.poll();
+	}
+
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		for (;;) {
+			if (cancelled) {
+				pending.clear();
+				orderedResponses.clear();
+				unorderedResponses.clear();
+				return;
+			}
+			if (done && error != null) {
+				pending.clear();
+				terminate();
+				downstream.onError(error);
+				return;
+			}
+
+			long demand = requested.get();
+			long emitted = 0;
+			while (emitted != demand) {
+				String response = pollResponse();
+				if (response == null) {
+					break;
+				}
+				held.decrementAndGet();
+				downstream.onNext(response);
+				emitted++;
+				if (cancelled) {
+					break;
+				}
+			}
+			if (emitted != 0 && demand != Long.MAX_VALUE) {
+				requested.addAndGet(-emitted);
+			}
+
+			if (done && held.get() == 0) {
+				terminate();
+				downstream.onComplete();
+				return;
+			}
+
+			if (!cancelled) {
+				dispatchPending();
+			}
+			if (!done && !cancelled) {
+				requestUpstream();
+			}
+
+			missed = wip.addAndGet(-missed);
+			if (missed == 0) {
+				break;
+			}
+		}
+	}
+
+	/*
+	 * Hands pending requests to the invocation executor as long as the Load
+	 * Balancer has capacity for them
+	 */
+	private void dispatchPending() {
+		while (!backingOff && !pending.isEmpty() && (long) loadBalancer.getAvailableCapacity() - notStarted.get() > 0) {
+			Slot slot = pending.poll();
+			if (slot == null) {
+				return;
+			}
+			notStarted.incrementAndGet();
+			CompletableFuture<Boolean> invocation = dispatcher.getInvocationExecutor().submit(() -> invoke(slot));
+			if (invocation.isDone() && !invocation.isCompletedExceptionally() && invocation.getNow(Boolean.TRUE) == null) {
+				// no in flight permit, the executor may be shared with other callers
+				notStarted.decrementAndGet();
+				pending.offerFirst(slot);
+				backOff();
+				return;
+			}
+			invocation.whenComplete((invoked, failure) -> {
+				if (failure != null) {
+					fail(failure);
+				} else {
+					drain();
+				}
+			});
+		}
+	}
+
+	/*
+	 * Pulls as many requests as the downstream demand, the buffer and the free
+	 * Cluster Capacity allow. Nothing is pulled while no Provider is available.
+	 */
+	private void requestUpstream() {
+		Subscription subscription = upstream;
+		if (subscription == null) {
+			return;
+		}
+		long pendingRequests = outstanding.get();
+		long inPipeline = held.get() + pendingRequests;
+		long toRequest = Math.min(requested.get() - inPipeline, dispatcher.getMaximumBuffered() - inPipeline);
+		toRequest = Math.min(toRequest, (long) loadBalancer.getAvailableCapacity() - notStarted.get() - pending.size() - pendingRequests);
+		if (toRequest > 0) {
+			outstanding.addAndGet(toRequest);
+			subscription.request(toRequest);
+		}
+	}
+
+	private void terminate() {
+		if (terminated.compareAndSet(false, true)) {
+			dispatcher.unregister(this);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package nl.alperturkyilmaz.loadbalancer.stream;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.event.LoadBalancerEvent;
+import nl.alperturkyilmaz.loadbalancer.event.LoadBalancerEventListener;
+import nl.alperturkyilmaz.loadbalancer.event.LoadBalancerEventType;
+import nl.alperturkyilmaz.loadbalancer.execution.InvocationExecutor;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+
+/*
+ * Reactive Streams entry point of the Load Balancer.
+ * 
+ * Every element of the request Publisher is dispatched through the Load
+ * Balancer with its RequestPriority and served by Provider.get(request), the
+ * responses are published downstream. Upstream
+ * demand is derived from the free Cluster Capacity, the downstream demand and
+ * the buffer size, so the dispatcher only pulls as many requests as the
+ * Providers can take, and nothing while no Provider is available. Requests
+ * rejected by the Load Balancer in the meantime are queued and dispatched again
+ * when a request completes or a Provider is included, or after the retry delay
+ * (e.g. for rate limits), instead of being answered with null. Waiting
+ * requests do not hold an executor thread. The retry timer runs while the
+ * dispatcher has active subscriptions.
+ * 
+ * On JDK 9+ the Publishers can be adapted to java.util.concurrent.Flow with
+ * org.reactivestreams.FlowAdapters.
+ */
+public class StreamingDispatcher {
+
+	public static int DEFAULT_MAXIMUM_BUFFERED = 256;
+	public static long DEFAULT_RETRY_DELAY_MILLIS = 10;
+
+	private final LoadBalancer loadBalancer;
+	private final InvocationExecutor invocationExecutor;
+	private int maximumBuffered = DEFAULT_MAXIMUM_BUFFERED;
+	private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+	private boolean ordered = true;
+	private Function<Object, RequestPriority> priorityOf = request -> RequestPriority.NORMAL;
+
+	/*
+	 * Runs the delayed retries of the subscriptions, started with the first
+	 * subscription and stopped with the last one
+	 */
+	private ScheduledExecutorService retryScheduler;
+
+	/*
+	 * Active subscriptions, woken up by a single listener on the Load Balancer
+	 * which is registered while there is at least one
+	 */
+	private final List<DispatchSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final LoadBalancerEventListener capacityListener = new LoadBalancerEventListener() {
+		private boolean capacityChanged;
+
+		@Override
+		public void onEvent(LoadBalancerEvent event, long sequence, boolean endOfBatch) {
+			LoadBalancerEventType type = event.getType();
+			if (type == LoadBalancerEventType.REQUEST_COMPLETED || type == LoadBalancerEventType.REQUEST_FAILED
+					|| type == LoadBalancerEventType.REQUEST_TIMED_OUT || type == LoadBalancerEventType.PROVIDER_INCLUDED) {
+				capacityChanged = true;
+			}
+			if (endOfBatch && capacityChanged) {
+				capacityChanged = false;
+				for (DispatchSubscription subscription : subscriptions) {
+					subscription.capacityChanged();
+				}
+			}
+		}
+	};
+
+	public static class Builder {
+		private LoadBalancer loadBalancer;
+		private InvocationExecutor invocationExecutor;
+		private int maximumBuffered = DEFAULT_MAXIMUM_BUFFERED;
+		private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+		private boolean ordered = true;
+		private Function<Object, RequestPriority> priorityOf = request -> RequestPriority.NORMAL;
+
+		public Builder withLoadBalancer(LoadBalancer loadBalancer) {
+			this.loadBalancer = loadBalancer;
+			return this;
+		}
+
+		/*
+		 * Executor that runs the blocking get() calls
+		 */
+		public Builder withInvocationExecutor(InvocationExecutor invocationExecutor) {
+			this.invocationExecutor = invocationExecutor;
+			return this;
+		}
+
+		/*
+		 * Maximum number of requests that are in flight or answered but not yet
+		 * consumed by the downstream Subscriber
+		 */
+		public Builder withMaximumBuffered(int maximumBuffered) {
+			if (maximumBuffered <= 0) {
+				throw new java.lang.IllegalArgumentException("Maximum buffered requests must be positive");
+			}
+			this.maximumBuffered = maximumBuffered;
+			return this;
+		}
+
+		/*
+		 * Delay before a request the Load Balancer rejected is dispatched again if
+		 * no event frees capacity earlier, e.g. for rate limits
+		 */
+		public Builder withRetryDelay(long inMillis) {
+			if (inMillis < 0) {
+				throw new java.lang.IllegalArgumentException("Retry delay can not be negative");
+			}
+			this.retryDelayMillis = inMillis;
+			return this;
+		}
+
+		/*
+		 * Priority of every request, NORMAL by default
+		 */
+		public Builder withPriority(RequestPriority priority) {
+			if (priority == null) {
+				throw new java.lang.IllegalArgumentException("Priority can not be null");
+			}
+			this.priorityOf = request -> priority;
+			return this;
+		}
+
+		/*
+		 * Derives the priority from the request
+		 */
+		public Builder withPriority(Function<Object, RequestPriority> priorityOf) {
+			if (priorityOf == null) {
+				throw new java.lang.IllegalArgumentException("Priority function can not be null");
+			}
+			this.priorityOf = priorityOf;
+			return this;
+		}
+
+		/*
+		 * Responses are published in request order
+		 */
+		public Builder ordered() {
+			this.ordered = true;
+			return this;
+		}
+
+		/*
+		 * Responses are published as soon as they arrive
+		 */
+		public Builder unordered() {
+			this.ordered = false;
+			return this;
+		}
+
+		public StreamingDispatcher build() {
+			if (loadBalancer == null || invocationExecutor == null) {
+				throw new java.lang.IllegalArgumentException("Load balancer and invocation executor are required");
+			}
+			StreamingDispatcher dispatcher = new StreamingDispatcher(loadBalancer, invocationExecutor);
+			dispatcher.maximumBuffered = this.maximumBuffered;
+			dispatcher.retryDelayMillis = this.retryDelayMillis;
+			dispatcher.ordered = this.ordered;
+			dispatcher.priorityOf = this.priorityOf;
+			return dispatcher;
+		}
+	}
+
+	private StreamingDispatcher(LoadBalancer loadBalancer, InvocationExecutor invocationExecutor) {
+		this.loadBalancer = loadBalancer;
+		this.invocationExecutor = invocationExecutor;
+	}
+
+	/*
+	 * Returns a cold Publisher of responses, each Subscriber subscribes to the
+	 * requests Publisher on its own.
+	 */
+	public Publisher<String> dispatch(Publisher<?> requests) {
+		if (requests == null) {
+			throw new java.lang.NullPointerException("Requests publisher can not be null");
+		}
+		return subscriber -> {
+			if (subscriber == null) {
+				throw new java.lang.NullPointerException("Subscriber can not be null");
+			}
+			requests.subscribe(new DispatchSubscription(this, subscriber));
+		};
+	}
+
+	synchronized void register(DispatchSubscription subscription) {
+		subscriptions.add(subscription);
+		if (subscriptions.size() == 1) {
+			retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "loadbalancer-stream-retry");
+				thread.setDaemon(true);
+				return thread;
+			});
+			loadBalancer.addEventListener(capacityListener);
+		}
+	}
+
+	synchronized void unregister(DispatchSubscription subscription) {
+		if (subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+			loadBalancer.removeEventListener(capacityListener);
+			retryScheduler.shutdownNow();
+			retryScheduler = null;
+		}
+	}
+
+	/*
+	 * Runs the task after the retry delay, ignored when no subscription is
+	 * active anymore
+	 */
+	synchronized void schedule(Runnable task) {
+		if (retryScheduler != null) {
+			retryScheduler.schedule(task, retryDelayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/*
+	 * Number of active subscriptions
+	 */
+	public int getSubscriptionCount() {
+		return subscriptions.size();
+	}
+
+	LoadBalancer getLoadBalancer() {
+		return loadBalancer;
+	}
+
+	InvocationExecutor getInvocationExecutor() {
+		return invocationExecutor;
+	}
+
+	int getMaximumBuffered() {
+		return maximumBuffered;
+	}
+
+	boolean isOrdered() {
+		return ordered;
+	}
+
+	RequestPriority priorityOf(Object request) {
+		return priorityOf.apply(request);
+	}
+}
@@ -0,0 +1,120 @@
+package nl.alperturkyilmaz.loadbalancer.subset;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+/*
+ * Deterministic subsetting in rotating rounds.
+ * 
+ * The registered Providers are split into subsetCount = n / subsetSize
+ * subsets. Clients are grouped into rounds of subsetCount clients, every round
+ * orders the Providers differently and client clientId gets subset
+ * clientId % subsetCount of the ordering of round clientId / subsetCount.
+ * Within a round every Provider is in at most one subset, so the clients of a
+ * round spread their load evenly over the fleet, and the rounds rotate the
+ * Providers left over by the division.
+ * 
+ * The ordering of a round sorts the Providers by a hash of the round and their
+ * id instead of shuffling the registration order. A registered or removed
+ * Provider therefore only shifts the subsets by one position, a client swaps at
+ * most one Provider. When n crosses a multiple of subsetSize, subsetCount
+ * changes and so do the round and the position of every client: the subsets
+ * are reassigned as a whole, e.g. going from 109 to 110 Providers with a
+ * subsetSize of 10 replaces most members of a subset. Excluded members of the
+ * subset are replaced by the next available Providers of the ordering and stay
+ * in the subset, so their health is still checked. The Load Balancer also
+ * keeps checking excluded Providers that are not in the subset.
+ */
+public class Subsetting {
+
+	private final int subsetSize;
+	private final int clientId;
+
+	public Subsetting(int subsetSize, int clientId) {
+		if (subsetSize <= 0) {
+			throw new java.lang.IllegalArgumentException("Subset size must be positive");
+		}
+		if (clientId < 0) {
+			throw new java.lang.IllegalArgumentException("Client id can not be negative");
+		}
+		this.subsetSize = subsetSize;
+		this.clientId = clientId;
+	}
+
+	public int getSubsetSize() {
+		return subsetSize;
+	}
+
+	public int getClientId() {
+		return clientId;
+	}
+
+	/*
+	 * returns the subset of the client, its own subsetSize Providers (excluded
+	 * ones included) followed by the replacements of the excluded ones
+	 */
+	public List<Provider> select(Collection<Provider> providers, Set<Provider> excluded) {
+		if (providers.size() <= subsetSize) {
+			return new ArrayList<>(providers);
+		}
+		int subsetCount = providers.size() / subsetSize;
+		long round = clientId / subsetCount;
+		int subsetId = clientId % subsetCount;
+
+		List<OrderedProvider> ordering = new ArrayList<>(providers.size());
+		for (Provider provider : providers) {
+			ordering.add(new OrderedProvider(provider, mix(round * 0x9E3779B97F4A7C15L + provider.getId().hashCode())));
+		}
+		Collections.sort(ordering);
+
+		int start = subsetId * subsetSize;
+		List<Provider> subset = new ArrayList<>(subsetSize);
+		int missing = 0;
+		for (int i = start; i < start + subsetSize; i++) {
+			Provider provider = ordering.get(i).provider;
+			subset.add(provider);
+			if (excluded.contains(provider)) {
+				missing++;
+			}
+		}
+		// replacements follow the subset in the ordering
+		for (int i = 1; missing > 0 && i < ordering.size() - subsetSize + 1; i++) {
+			Provider provider = ordering.get((start + subsetSize - 1 + i) % ordering.size()).provider;
+			if (!excluded.contains(provider)) {
+				subset.add(provider);
+				missing--;
+			}
+		}
+		return subset;
+	}
+
+	/*
+	 * SplitMix64 finalizer
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static class OrderedProvider implements Comparable<OrderedProvider> {
+		private final Provider provider;
+		private final long key;
+
+		OrderedProvider(Provider provider, long key) {
+			this.provider = provider;
+			this.key = key;
+		}
+
+		@Override
+		public int compareTo(OrderedProvider other) {
+			int byKey = Long.compare(key, other.key);
+			return byKey != 0 ? byKey : provider.getId().compareTo(other.provider.getId());
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.DampedHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatMonitorable;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.ImprovedHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+import nl.alperturkyilmaz.loadbalancer.simulation.ArrivalProcess;
+import nl.alperturkyilmaz.loadbalancer.simulation.LatencyDistribution;
+import nl.alperturkyilmaz.loadbalancer.simulation.Simulation;
+import nl.alperturkyilmaz.loadbalancer.simulation.SimulationReport;
+import nl.alperturkyilmaz.loadbalancer.simulation.SyntheticProvider;
+
+public class DampedHeartbeatPolicyTest {
+
+	/*
+	 * Provider whose probe outcomes are scripted
+	 */
+	private static class ScriptedMonitorable implements HeartbeatMonitorable {
+		private final Provider provider = new Provider();
+		private final Set<Provider> excluded = new HashSet<>();
+		private boolean healthy = true;
+		private boolean monitored = true;
+		private boolean registered = true;
+
+		@Override
+		public Collection<Provider> getProviders() {
+			List<Provider> providers = new ArrayList<>();
+			if (monitored) {
+				providers.add(provider);
+			}
+			return providers;
+		}
+
+		@Override
+		public boolean include(Provider provider) {
+			return excluded.remove(provider);
+		}
+
+		@Override
+		public boolean exclude(Provider provider) {
+			return excluded.add(provider);
+		}
+
+		@Override
+		public int slot(Provider provider) {
+			return registered && provider == this.provider ? 0 : -1;
+		}
+
+		@Override
+		public boolean probe(Provider provider) {
+			return healthy;
+		}
+
+		boolean isAvailable() {
+			return !excluded.contains(provider);
+		}
+
+		void heartbeats(HeartbeatPolicy policy, boolean healthy, int rounds) {
+			this.healthy = healthy;
+			for (int i = 0; i < rounds; i++) {
+				policy.apply(this);
+			}
+		}
+	}
+
+	@Test
+	public void testSingleOutageIsNotDamped() {
+		DampedHeartbeatPolicy policy = new DampedHeartbeatPolicy();
+		ScriptedMonitorable monitorable = new ScriptedMonitorable();
+		monitorable.heartbeats(policy, true, 10);
+		monitorable.heartbeats(policy, false, 5);
+		assertFalse(monitorable.isAvailable());
+		assertEquals(1, policy.getFlapCount());
+		assertFalse(policy.isSuppressed(monitorable.provider));
+
+		monitorable.heartbeats(policy, true, DampedHeartbeatPolicy.DEFAULT_CONSECUTIVE_SUCCESSES - 1);
+		assertFalse(monitorable.isAvailable());
+		monitorable.heartbeats(policy, true, 1);
+		assertTrue("Included after consecutive successes", monitorable.isAvailable());
+		// 8 of the first 10 successes, 5 failures and 3 successes
+		assertEquals(11.0 / 16, policy.getHealthScore(monitorable.provider), 0);
+	}
+
+	@Test
+	public void testFlappingProviderIsSuppressedUntilPenaltyDecays() {
+		DampedHeartbeatPolicy policy = new DampedHeartbeatPolicy().withDamping(1000, 2000, 750, 5, 20);
+		ScriptedMonitorable monitorable = new ScriptedMonitorable();
+		for (int i = 0; i < 3; i++) {
+			monitorable.heartbeats(policy, true, 1);
+			monitorable.heartbeats(policy, false, 1);
+		}
+		assertTrue(policy.isSuppressed(monitorable.provider));
+		assertEquals(1, policy.getSuppressionCount());
+
+		// healthy again, but suppressed until the penalty decays below 750
+		monitorable.heartbeats(policy, true, 5);
+		assertFalse(monitorable.isAvailable());
+		int rounds = 5;
+		while (!monitorable.isAvailable()) {
+			monitorable.heartbeats(policy, true, 1);
+			rounds++;
+		}
+		assertTrue(policy.getPenalty(monitorable.provider) < 750);
+		assertTrue("Suppressed for " + rounds + " rounds", rounds > 5 && rounds <= 20);
+	}
+
+	@Test
+	public void testStateOfUnmonitoredProviderIsDropped() {
+		DampedHeartbeatPolicy policy = new DampedHeartbeatPolicy();
+		ScriptedMonitorable monitorable = new ScriptedMonitorable();
+		for (int i = 0; i < 3; i++) {
+			monitorable.heartbeats(policy, true, 1);
+			monitorable.heartbeats(policy, false, 1);
+		}
+		assertTrue(policy.isSuppressed(monitorable.provider));
+
+		monitorable.monitored = false;
+		monitorable.heartbeats(policy, true, 1);
+		assertFalse(policy.isSuppressed(monitorable.provider));
+		assertEquals(0, policy.getPenalty(monitorable.provider), 0);
+		assertEquals(1, policy.getHealthScore(monitorable.provider), 0);
+	}
+
+	@Test
+	public void testExcludedProviderIsIncludedAfterItIsMonitoredAgain() {
+		DampedHeartbeatPolicy policy = new DampedHeartbeatPolicy();
+		ScriptedMonitorable monitorable = new ScriptedMonitorable();
+		monitorable.heartbeats(policy, false, 1);
+		assertFalse(monitorable.isAvailable());
+
+		// e.g. rotated out of the subset while excluded
+		monitorable.monitored = false;
+		monitorable.heartbeats(policy, true, 5);
+		monitorable.monitored = true;
+		monitorable.heartbeats(policy, true, DampedHeartbeatPolicy.DEFAULT_CONSECUTIVE_SUCCESSES);
+		assertTrue("Excluded by the policy, so included again", monitorable.isAvailable());
+	}
+
+	@Test
+	public void testUnregisteredProviderIsForgotten() {
+		DampedHeartbeatPolicy policy = new DampedHeartbeatPolicy();
+		ScriptedMonitorable monitorable = new ScriptedMonitorable();
+		monitorable.heartbeats(policy, false, 1);
+		monitorable.monitored = false;
+		monitorable.registered = false;
+		monitorable.heartbeats(policy, true, 1);
+
+		// registered again and excluded by hand, the policy must not include it
+		monitorable.monitored = true;
+		monitorable.registered = true;
+		monitorable.heartbeats(policy, true, 10);
+		assertFalse(monitorable.isAvailable());
+	}
+
+	@Test
+	public void testManuallyExcludedProviderIsNotIncluded() {
+		DampedHeartbeatPolicy policy = new DampedHeartbeatPolicy();
+		ScriptedMonitorable monitorable = new ScriptedMonitorable();
+		monitorable.exclude(monitorable.provider);
+		monitorable.heartbeats(policy, true, 20);
+		assertFalse(monitorable.isAvailable());
+	}
+
+	/*
+	 * 6 stable providers and 4 whose probes fail 30% of the time, like
+	 * MockProvider.RANDOM_BEHAVIOR
+	 */
+	private SimulationReport simulateFlappingFleet(HeartbeatPolicy heartbeatPolicy) {
+		return new Simulation.Builder().withLoadBalancer(new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy()))
+										.withProviders(6, () -> new SyntheticProvider().withLatency(LatencyDistribution.fixed(Duration.ofMillis(10))))
+										.withProviders(4, () -> new SyntheticProvider().withLatency(LatencyDistribution.fixed(Duration.ofMillis(10)))
+																						.withProbeFailureProbability(0.3))
+										.withHeartbeatPolicy(heartbeatPolicy, Duration.ofSeconds(10))
+										.withArrivals(ArrivalProcess.poisson(50))
+										.withDuration(Duration.ofHours(1))
+										.withSeed(3)
+										.build()
+										.run();
+	}
+
+	@Test
+	public void testDampingReducesChurnOfFlappingFleet() {
+		SimulationReport improved = simulateFlappingFleet(new ImprovedHeartbeatPolicy());
+		SimulationReport damped = simulateFlappingFleet(new DampedHeartbeatPolicy());
+		long improvedChurn = improved.getExclusions() + improved.getInclusions();
+		long dampedChurn = damped.getExclusions() + damped.getInclusions();
+		System.out.println("ImprovedHeartbeatPolicy: " + improved);
+		System.out.println("DampedHeartbeatPolicy:   " + damped);
+		System.out.println(String.format("Available list changes %d -> %d (%.1fx fewer)", improvedChurn, dampedChurn, (double) improvedChurn / dampedChurn));
+		assertTrue(dampedChurn * 10 < improvedChurn);
+	}
+}
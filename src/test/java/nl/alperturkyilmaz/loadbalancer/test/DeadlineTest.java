@@ -0,0 +1,175 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.event.LoadBalancerEventType;
+import nl.alperturkyilmaz.loadbalancer.execution.Deadline;
+import nl.alperturkyilmaz.loadbalancer.execution.InvocationExecutor;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+public class DeadlineTest {
+
+	/*
+	 * Blocks in get() until interrupted or released
+	 */
+	static class BlockingProvider extends Provider {
+		final AtomicInteger calls = new AtomicInteger(0);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String get() {
+			calls.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return super.get();
+		}
+	}
+
+	private InvocationExecutor executor = InvocationExecutor.platformThreads(1, InvocationExecutor.UNLIMITED_IN_FLIGHT);
+
+	private LoadBalancer build(Provider provider, int timeoutThreshold) {
+		List<Provider> providers = new ArrayList<>();
+		providers.add(provider);
+		return new LoadBalancer.Builder().withProviders(providers)
+											.withClusterCapacity(2)
+											.withInvocationExecutor(executor)
+											.withTimeoutThreshold(timeoutThreshold)
+											.build();
+	}
+
+	@After
+	public void clean() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testTimeoutReleasesCapacityAndCancelsProvider() throws InterruptedException {
+		BlockingProvider provider = new BlockingProvider();
+		LoadBalancer loadBalancer = build(provider, LoadBalancer.DEFAULT_TIMEOUT_THRESHOLD);
+
+		long start = System.nanoTime();
+		assertNull(loadBalancer.get(Duration.ofMillis(100)));
+		assertTrue("Caller must get control back at the deadline", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals("Capacity must be released immediately", 2, loadBalancer.getAvailableCapacity());
+		assertTrue("Provider call must be interrupted", provider.interrupted.await(2, TimeUnit.SECONDS));
+		assertEquals(1, loadBalancer.getRecentTimeoutCount(provider));
+		loadBalancer.shutdown();
+	}
+
+	@Test
+	public void testResponseBeforeDeadline() {
+		Provider provider = new Provider();
+		LoadBalancer loadBalancer = build(provider, LoadBalancer.DEFAULT_TIMEOUT_THRESHOLD);
+		assertEquals(provider.getId(), loadBalancer.get(Duration.ofSeconds(5)));
+		assertEquals(2, loadBalancer.getAvailableCapacity());
+		loadBalancer.shutdown();
+	}
+
+	@Test
+	public void testExpiredRequestsNeverReachProvider() throws InterruptedException {
+		BlockingProvider provider = new BlockingProvider();
+		LoadBalancer loadBalancer = build(provider, LoadBalancer.DEFAULT_TIMEOUT_THRESHOLD);
+
+		assertNull(loadBalancer.get(Deadline.atNanos(System.nanoTime() - 1)));
+		assertEquals(0, provider.calls.get());
+
+		// Occupy the only executor thread, the next request expires in the queue
+		executor.execute(() -> {
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertNull(loadBalancer.get(Duration.ofMillis(50)));
+		Thread.sleep(500);
+		assertEquals("Request expired in the queue must not reach the provider", 0, provider.calls.get());
+		assertEquals("Expired in queue requests do not count against the provider", 0, loadBalancer.getRecentTimeoutCount(provider));
+		assertEquals(2, loadBalancer.getAvailableCapacity());
+		assertEquals("Expired in queue requests are shed", 1, loadBalancer.getPriorityLanes().getShedCount(RequestPriority.NORMAL));
+		assertEquals(0, loadBalancer.getPriorityLanes().getAdmittedCount(RequestPriority.NORMAL));
+		loadBalancer.shutdown();
+	}
+
+	@Test
+	public void testTimeoutsFailTheHeartbeat() {
+		BlockingProvider provider = new BlockingProvider();
+		LoadBalancer loadBalancer = build(provider, 1);
+
+		assertTrue(loadBalancer.probe(provider));
+		assertNull(loadBalancer.get(Duration.ofMillis(50)));
+		assertFalse("Timeouts must fail the heartbeat", loadBalancer.probe(provider));
+		assertTrue("Timeouts are counted per heartbeat period", loadBalancer.probe(provider));
+		loadBalancer.shutdown();
+	}
+
+	/*
+	 * Ignores interrupts until released
+	 */
+	static class StubbornProvider extends Provider {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String get() {
+			boolean done = false;
+			while (!done) {
+				try {
+					done = release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					// keeps running after the cancellation
+				}
+			}
+			return super.get();
+		}
+	}
+
+	@Test
+	public void testTimedOutInvocationHoldsPermitAndPublishesOneOutcome() throws InterruptedException {
+		InvocationExecutor limitedExecutor = InvocationExecutor.platformThreads(2, 1);
+		StubbornProvider provider = new StubbornProvider();
+		List<Provider> providers = new ArrayList<>();
+		providers.add(provider);
+		Map<LoadBalancerEventType, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withProviders(providers)
+																.withInvocationExecutor(limitedExecutor)
+																.withEventListener((event, sequence, endOfBatch) -> outcomes
+																		.computeIfAbsent(event.getType(), type -> new AtomicInteger()).incrementAndGet())
+																.build();
+
+		assertNull(loadBalancer.get(Duration.ofMillis(50)));
+		long start = System.nanoTime();
+		assertNull("The timed out invocation still holds the only permit", loadBalancer.get(Duration.ofSeconds(5)));
+		assertTrue("Requests without a permit are rejected immediately", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+		provider.release.countDown();
+		Thread.sleep(200);
+		assertEquals(provider.getId(), loadBalancer.get(Duration.ofSeconds(5)));
+		Thread.sleep(200);
+		assertEquals(1, outcomes.get(LoadBalancerEventType.REQUEST_TIMED_OUT).get());
+		assertEquals(1, outcomes.get(LoadBalancerEventType.REQUEST_REJECTED).get());
+		assertEquals("A timed out request must not complete again", 1, outcomes.get(LoadBalancerEventType.REQUEST_COMPLETED).get());
+		loadBalancer.shutdown();
+		limitedExecutor.shutdown();
+	}
+}
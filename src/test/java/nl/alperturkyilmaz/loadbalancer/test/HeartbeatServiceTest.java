@@ -0,0 +1,307 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.HeartbeatService;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.HeartbeatSubscription;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.DefaultHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatMonitorable;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+public class HeartbeatServiceTest {
+
+	private static class CountingProvider extends Provider {
+		private final AtomicInteger checks = new AtomicInteger();
+		private volatile boolean healthy = true;
+
+		@Override
+		public boolean check() {
+			checks.incrementAndGet();
+			return healthy;
+		}
+	}
+
+	/*
+	 * Counts the heartbeats and delegates them to a policy
+	 */
+	private static class CountingPolicy implements HeartbeatPolicy {
+		private final AtomicInteger heartbeats = new AtomicInteger();
+		private final HeartbeatPolicy delegate;
+
+		CountingPolicy(HeartbeatPolicy delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void apply(HeartbeatMonitorable monitorable) {
+			if (delegate != null) {
+				delegate.apply(monitorable);
+			}
+			heartbeats.incrementAndGet();
+		}
+	}
+
+	private List<CountingProvider> providers(int count) {
+		List<CountingProvider> providers = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			providers.add(new CountingProvider());
+		}
+		return providers;
+	}
+
+	private static Provider hungProvider(CountDownLatch release) {
+		return new Provider() {
+			@Override
+			public boolean check() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+		};
+	}
+
+	private LoadBalancer loadBalancer(HeartbeatService service, HeartbeatPolicy policy, List<? extends Provider> providers) {
+		return new LoadBalancer.Builder().withHeartbeatService(service).withHeartbeatPolicy(policy).withHeartbeatFrequency(1)
+											.withProviders(new ArrayList<>(providers)).build();
+	}
+
+	private void awaitHeartbeats(CountingPolicy policy, int heartbeats) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (policy.heartbeats.get() < heartbeats && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue("Timed out waiting for heartbeats", policy.heartbeats.get() >= heartbeats);
+	}
+
+	@Test
+	public void testOverlappingProvidersAreCheckedOncePerHeartbeat() throws InterruptedException {
+		HeartbeatService service = new HeartbeatService(2);
+		List<CountingProvider> providers = providers(20);
+		List<LoadBalancer> loadBalancers = new ArrayList<>();
+		List<CountingPolicy> policies = new ArrayList<>();
+		// 5 Load Balancers over overlapping windows of 10 Providers
+		for (int i = 0; i < 5; i++) {
+			CountingPolicy policy = new CountingPolicy(new DefaultHeartbeatPolicy());
+			policies.add(policy);
+			loadBalancers.add(loadBalancer(service, policy, providers.subList(2 * i, 2 * i + 10)));
+		}
+		assertEquals(5, service.getSubscriptionCount());
+		assertEquals(5, service.getSubscriberCount(providers.get(9)));
+		awaitHeartbeats(policies.get(0), 3);
+		for (LoadBalancer loadBalancer : loadBalancers) {
+			loadBalancer.shutdown();
+		}
+		assertEquals(0, service.getSubscriptionCount());
+
+		int heartbeats = 0;
+		for (CountingPolicy policy : policies) {
+			heartbeats = Math.max(heartbeats, policy.heartbeats.get());
+		}
+		for (CountingProvider provider : providers) {
+			// a round may have been checked but not applied yet at shutdown
+			assertTrue("Checked " + provider.checks.get() + " times in " + heartbeats + " heartbeats", provider.checks.get() <= heartbeats + 1);
+		}
+		assertTrue(service.getCheckCount() <= 20 * (heartbeats + 1));
+	}
+
+	@Test
+	public void testEveryMonitorableAppliesItsOwnPolicy() throws InterruptedException {
+		HeartbeatService service = new HeartbeatService(2);
+		List<CountingProvider> providers = providers(2);
+		providers.get(0).healthy = false;
+		CountingPolicy excluding = new CountingPolicy(new DefaultHeartbeatPolicy());
+		CountingPolicy ignoring = new CountingPolicy(null);
+		LoadBalancer strict = loadBalancer(service, excluding, providers);
+		LoadBalancer lenient = loadBalancer(service, ignoring, providers);
+		try {
+			awaitHeartbeats(excluding, 1);
+			awaitHeartbeats(ignoring, 1);
+			assertFalse("Already excluded by DefaultHeartbeatPolicy", strict.exclude(providers.get(0)));
+			assertTrue("Healthy Provider stays available", strict.exclude(providers.get(1)));
+			assertTrue("Not excluded by the lenient policy", lenient.exclude(providers.get(0)));
+		} finally {
+			strict.shutdown();
+			lenient.shutdown();
+		}
+	}
+
+	@Test
+	public void testShutdownOnlyStopsUnsharedChecks() throws InterruptedException {
+		HeartbeatService service = new HeartbeatService(1);
+		List<CountingProvider> providers = providers(2);
+		CountingProvider shared = providers.get(0);
+		CountingProvider unshared = providers.get(1);
+		CountingPolicy remainingPolicy = new CountingPolicy(null);
+		LoadBalancer remaining = loadBalancer(service, remainingPolicy, Arrays.asList(shared));
+		LoadBalancer stopped = loadBalancer(service, new CountingPolicy(null), providers);
+		assertEquals(2, service.getSubscriberCount(shared));
+
+		stopped.shutdown();
+		assertEquals(1, service.getSubscriberCount(shared));
+		assertEquals(0, service.getSubscriberCount(unshared));
+		int sharedChecks = shared.checks.get();
+		int unsharedChecks = unshared.checks.get();
+		awaitHeartbeats(remainingPolicy, remainingPolicy.heartbeats.get() + 2);
+		remaining.shutdown();
+
+		assertTrue("Shared Provider is still checked", shared.checks.get() > sharedChecks);
+		// at most a round that was running at shutdown
+		assertTrue(unshared.checks.get() <= unsharedChecks + 1);
+		assertEquals(0, service.getSubscriptionCount());
+	}
+
+	@Test
+	public void testHungCheckFailsAfterTimeout() throws InterruptedException {
+		HeartbeatService service = new HeartbeatService(2, Duration.ofMillis(100));
+		CountDownLatch release = new CountDownLatch(1);
+		Provider hung = hungProvider(release);
+		CountingPolicy policy = new CountingPolicy(new DefaultHeartbeatPolicy());
+		LoadBalancer loadBalancer = loadBalancer(service, policy, Arrays.asList(hung));
+		try {
+			awaitHeartbeats(policy, 2);
+			assertFalse("Excluded after its check timed out", loadBalancer.exclude(hung));
+			assertTrue(service.getCheckTimeoutCount() >= 1);
+		} finally {
+			release.countDown();
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testHungChecksDoNotStarveTheOthers() throws InterruptedException {
+		HeartbeatService service = new HeartbeatService(2, Duration.ofMillis(100));
+		CountDownLatch release = new CountDownLatch(1);
+		List<Provider> providers = new ArrayList<>();
+		// more hung Providers than probe threads
+		for (int i = 0; i < 4; i++) {
+			providers.add(hungProvider(release));
+		}
+		CountingProvider healthy = new CountingProvider();
+		providers.add(healthy);
+		AtomicInteger healthyFailures = new AtomicInteger();
+		CountingPolicy policy = new CountingPolicy(monitorable -> {
+			for (Provider provider : monitorable.getProviders()) {
+				if (!monitorable.probe(provider) && provider == healthy) {
+					healthyFailures.incrementAndGet();
+				}
+			}
+		});
+		LoadBalancer loadBalancer = loadBalancer(service, policy, providers);
+		try {
+			awaitHeartbeats(policy, 3);
+			assertEquals("Healthy Provider failed its checks", 0, healthyFailures.get());
+			assertTrue(healthy.checks.get() >= 3);
+		} finally {
+			release.countDown();
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testProviderJoiningDuringRoundIsNotCheckedInline() throws InterruptedException {
+		HeartbeatService service = new HeartbeatService(1, Duration.ofMillis(100));
+		CountDownLatch release = new CountDownLatch(1);
+		CountingProvider member = new CountingProvider();
+		Provider joining = hungProvider(release);
+		AtomicInteger calls = new AtomicInteger();
+		HeartbeatMonitorable monitorable = new HeartbeatMonitorable() {
+			@Override
+			public Collection<Provider> getProviders() {
+				// the joining Provider shows up after the round collected the Providers
+				return calls.incrementAndGet() == 1 ? Arrays.asList(member) : Arrays.asList(member, joining);
+			}
+
+			@Override
+			public boolean include(Provider provider) {
+				return false;
+			}
+
+			@Override
+			public boolean exclude(Provider provider) {
+				return false;
+			}
+		};
+		List<Collection<Provider>> probed = new ArrayList<>();
+		AtomicInteger joiningFailures = new AtomicInteger();
+		CountingPolicy policy = new CountingPolicy(checked -> {
+			synchronized (probed) {
+				probed.add(checked.getProviders());
+			}
+			// probing a Provider the round did not check must not block the scheduler
+			if (!checked.probe(joining)) {
+				joiningFailures.incrementAndGet();
+			}
+		});
+		HeartbeatSubscription subscription = service.subscribe(monitorable, policy, Duration.ofMillis(20));
+		try {
+			awaitHeartbeats(policy, 3);
+			synchronized (probed) {
+				assertEquals("Unprobed in the round it joined", Arrays.asList(member), probed.get(0));
+			}
+			assertEquals(policy.heartbeats.get(), joiningFailures.get());
+			assertTrue(service.getCheckTimeoutCount() >= 1);
+		} finally {
+			release.countDown();
+			subscription.cancel();
+		}
+	}
+
+	@Test
+	public void testFailingMonitorableDoesNotStopTheRounds() throws InterruptedException {
+		HeartbeatService service = new HeartbeatService(1);
+		AtomicInteger calls = new AtomicInteger();
+		HeartbeatMonitorable failing = new HeartbeatMonitorable() {
+			@Override
+			public Collection<Provider> getProviders() {
+				if (calls.incrementAndGet() == 1) {
+					throw new ConcurrentModificationException();
+				}
+				return Collections.emptyList();
+			}
+
+			@Override
+			public boolean include(Provider provider) {
+				return false;
+			}
+
+			@Override
+			public boolean exclude(Provider provider) {
+				return false;
+			}
+		};
+		CountingPolicy policy = new CountingPolicy(null);
+		HeartbeatSubscription subscription = service.subscribe(failing, policy, Duration.ofMillis(20));
+		try {
+			awaitHeartbeats(policy, 2);
+			assertEquals(1, service.getPolicyFailureCount());
+		} finally {
+			subscription.cancel();
+		}
+	}
+
+	@Test
+	public void testSharedInstance() {
+		assertNotNull(HeartbeatService.shared());
+		assertEquals(HeartbeatService.shared(), HeartbeatService.shared());
+	}
+}
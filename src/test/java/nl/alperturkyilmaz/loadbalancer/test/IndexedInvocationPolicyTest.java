@@ -0,0 +1,155 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.IndexedInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.InvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.InvocationPolicyAdapter;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.LeastOutstandingInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.ProviderSnapshot;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RandomInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.SlotState;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+public class IndexedInvocationPolicyTest {
+
+	private static final int WARMUP_REQUESTS = 200_000;
+	private static final int MEASURED_REQUESTS = 100_000;
+
+	private List<Provider> providers(int count) {
+		List<Provider> providers = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			providers.add(new Provider());
+		}
+		return providers;
+	}
+
+	private long allocatedBytesPerGet(LoadBalancer loadBalancer) {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		assumeTrue("Thread allocation counters not available", threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+		long threadId = Thread.currentThread().getId();
+
+		for (int i = 0; i < WARMUP_REQUESTS; i++) {
+			assertNotNull(loadBalancer.get());
+		}
+		long before = allocationBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_REQUESTS; i++) {
+			loadBalancer.get();
+		}
+		long after = allocationBean.getThreadAllocatedBytes(threadId);
+		return (after - before) / MEASURED_REQUESTS;
+	}
+
+	@Test
+	public void testGetDoesNotAllocate() {
+		IndexedInvocationPolicy[] policies = { new RoundRobinInvocationPolicy(), new RandomInvocationPolicy(1), new LeastOutstandingInvocationPolicy() };
+		for (IndexedInvocationPolicy policy : policies) {
+			LoadBalancer loadBalancer = new LoadBalancer.Builder().withIndexedInvocationPolicy(policy).withClusterCapacity(4).withProviders(providers(10)).build();
+			try {
+				assertEquals(policy.getClass().getSimpleName() + " allocates in get()", 0, allocatedBytesPerGet(loadBalancer));
+			} finally {
+				loadBalancer.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testLegacyPolicyRunsThroughAdapter() {
+		List<Provider> providers = providers(3);
+		InvocationPolicy lastProvider = list -> list.get(list.size() - 1);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(lastProvider).withProviders(providers).build();
+		try {
+			assertEquals(providers.get(2).getId(), loadBalancer.get());
+			loadBalancer.exclude(providers.get(2));
+			assertEquals(providers.get(1).getId(), loadBalancer.get());
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testLegacyOverrideOfBuiltInPolicyIsHonored() {
+		List<Provider> providers = providers(3);
+		RoundRobinInvocationPolicy firstProvider = new RoundRobinInvocationPolicy() {
+			@Override
+			public Provider apply(List<Provider> list) {
+				return list.get(0);
+			}
+		};
+		assertTrue(InvocationPolicyAdapter.adapt(firstProvider) instanceof InvocationPolicyAdapter);
+		assertTrue(InvocationPolicyAdapter.adapt(new RoundRobinInvocationPolicy()) instanceof RoundRobinInvocationPolicy);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(firstProvider).withProviders(providers).build();
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertEquals(providers.get(0).getId(), loadBalancer.get());
+			}
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testRoundRobinVisitsSnapshotInOrder() {
+		Provider[] providers = providers(3).toArray(new Provider[0]);
+		ProviderSnapshot snapshot = new ProviderSnapshot(providers, new int[] { 5, 2, 7 });
+		SlotState state = new SlotState(8, 0, 0);
+		RoundRobinInvocationPolicy policy = new RoundRobinInvocationPolicy();
+		for (int i = 0; i < 6; i++) {
+			assertEquals(i % 3, policy.select(snapshot, state));
+		}
+		assertEquals(IndexedInvocationPolicy.NO_PROVIDER, policy.select(ProviderSnapshot.EMPTY, state));
+	}
+
+	@Test
+	public void testLeastOutstandingAvoidsBusyProvider() {
+		List<Provider> providers = providers(2);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withIndexedInvocationPolicy(new LeastOutstandingInvocationPolicy()).withProviders(providers).build();
+		try {
+			// the first Provider stays busy
+			Provider busy = loadBalancer.select(RequestPriority.NORMAL);
+			assertEquals(1, loadBalancer.getInFlight(busy));
+			Map<Provider, Integer> selections = new HashMap<>();
+			for (int i = 0; i < 100; i++) {
+				Provider provider = loadBalancer.select(RequestPriority.NORMAL);
+				selections.merge(provider, 1, Integer::sum);
+				loadBalancer.complete(RequestPriority.NORMAL, provider, 1_000, true);
+			}
+			assertEquals("Idle Provider must get every request", Integer.valueOf(100), selections.get(providers.get(providers.get(0) == busy ? 1 : 0)));
+			loadBalancer.complete(RequestPriority.NORMAL, busy, 1_000, true);
+			assertEquals(0, loadBalancer.getInFlight(busy));
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testSlotStateStoresDoubles() {
+		SlotState state = new SlotState(4, 1, 2);
+		state.setDouble(3, 1, 0.25);
+		state.setLong(3, 0, 42);
+		assertEquals(0.25, state.getDouble(3, 1), 0);
+		assertEquals(0, state.getDouble(3, 0), 0);
+		assertEquals(43, state.addLong(3, 0, 1));
+		assertTrue(state.compareAndSetDouble(3, 1, 0.25, 0.5));
+		state.clear(3);
+		assertEquals(0, state.getLong(3, 0));
+		assertEquals(0, state.getDouble(3, 1), 0);
+	}
+}
@@ -0,0 +1,170 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.execution.InvocationExecutor;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.HeartbeatService;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.DefaultHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+import nl.alperturkyilmaz.loadbalancer.test.MockProvider.ProviderStatus;
+
+public class InvocationExecutorTest {
+
+	/*
+	 * Enable with -Dloadbalancer.benchmark=true
+	 */
+	private static final boolean BENCHMARK_ENABLED = Boolean.getBoolean("loadbalancer.benchmark");
+
+	private static final int BENCHMARK_REQUESTS = 100_000;
+	private static final int BENCHMARK_PROVIDERS = 10;
+	private static final long BENCHMARK_PROVIDER_DELAY_MILLIS = 1000;
+	private static final int BENCHMARK_PLATFORM_POOL_SIZE = 2000;
+
+	private List<Provider> generateProviders(int size, long delayInMillis) {
+		List<Provider> providers = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			providers.add(new ParkingMockProvider(ProviderStatus.ALIVE, delayInMillis));
+		}
+		return providers;
+	}
+
+	@Test
+	public void testInFlightLimitIsEnforcedBySemaphore() throws Exception {
+		InvocationExecutor executor = InvocationExecutor.platformThreads(8, 2);
+		CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<String> first = executor.submit(() -> await(release, "first"));
+		CompletableFuture<String> second = executor.submit(() -> await(release, "second"));
+		CompletableFuture<String> rejected = executor.submit(() -> "rejected");
+
+		assertNull("Invocation above the in flight limit must be rejected", rejected.get(1, TimeUnit.SECONDS));
+		assertEquals(0, executor.getAvailablePermits());
+
+		release.countDown();
+		assertEquals("first", first.get(1, TimeUnit.SECONDS));
+		assertEquals("second", second.get(1, TimeUnit.SECONDS));
+		assertEquals(2, executor.getAvailablePermits());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testGetAsync() throws Exception {
+		InvocationExecutor executor = InvocationExecutor.preferVirtualThreads(InvocationExecutor.UNLIMITED_IN_FLIGHT, 4);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(generateProviders(2, 10))
+																.withInvocationExecutor(executor)
+																.build();
+		assertNotNull(loadBalancer.getAsync().get(5, TimeUnit.SECONDS));
+		loadBalancer.shutdown();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testHungHeartbeatCheckTimesOut() throws Exception {
+		long checkTimeout = HeartbeatService.DEFAULT_CHECK_TIMEOUT_MILLIS;
+		HeartbeatService.DEFAULT_CHECK_TIMEOUT_MILLIS = 100;
+		InvocationExecutor executor = InvocationExecutor.platformThreads(2, InvocationExecutor.UNLIMITED_IN_FLIGHT);
+		CountDownLatch release = new CountDownLatch(1);
+		Provider hung = new Provider() {
+			@Override
+			public boolean check() {
+				await(release, null);
+				return true;
+			}
+		};
+		Provider healthy = new Provider();
+		List<Provider> providers = new ArrayList<>();
+		providers.add(hung);
+		providers.add(healthy);
+		AtomicInteger heartbeats = new AtomicInteger();
+		DefaultHeartbeatPolicy policy = new DefaultHeartbeatPolicy();
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withProviders(providers)
+																.withInvocationExecutor(executor)
+																.withHeartbeatPolicy(monitorable -> {
+																	policy.apply(monitorable);
+																	heartbeats.incrementAndGet();
+																})
+																.withHeartbeatFrequency(1)
+																.build();
+		try {
+			long deadline = System.currentTimeMillis() + 10_000;
+			// the hung check keeps one of the two threads, later rounds must not wait for it
+			while (heartbeats.get() < 3 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue("Heartbeats stopped after " + heartbeats.get(), heartbeats.get() >= 3);
+			assertFalse("Hung Provider must be excluded", loadBalancer.exclude(hung));
+			assertTrue("Healthy Provider must stay available", loadBalancer.exclude(healthy));
+		} finally {
+			HeartbeatService.DEFAULT_CHECK_TIMEOUT_MILLIS = checkTimeout;
+			release.countDown();
+			loadBalancer.shutdown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void benchmarkPlatformThreads() throws Exception {
+		assumeTrue(BENCHMARK_ENABLED);
+		runBenchmark(InvocationExecutor.platformThreads(BENCHMARK_PLATFORM_POOL_SIZE, BENCHMARK_REQUESTS));
+	}
+
+	@Test
+	public void benchmarkVirtualThreads() throws Exception {
+		assumeTrue(BENCHMARK_ENABLED && InvocationExecutor.isVirtualThreadSupported());
+		runBenchmark(InvocationExecutor.virtualThreads(BENCHMARK_REQUESTS));
+	}
+
+	/*
+	 * Starts BENCHMARK_REQUESTS concurrent slow requests and measures the time
+	 * until all of them are answered
+	 */
+	private void runBenchmark(InvocationExecutor executor) throws Exception {
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(generateProviders(BENCHMARK_PROVIDERS, BENCHMARK_PROVIDER_DELAY_MILLIS))
+																.withInvocationExecutor(executor)
+																.build();
+		long start = System.nanoTime();
+		List<CompletableFuture<String>> responses = new ArrayList<>(BENCHMARK_REQUESTS);
+		for (int i = 0; i < BENCHMARK_REQUESTS; i++) {
+			responses.add(loadBalancer.getAsync());
+		}
+		int answered = 0;
+		for (CompletableFuture<String> response : responses) {
+			if (response.get() != null) {
+				answered++;
+			}
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		System.out.println(String.format("%s threads: %d/%d requests answered in %d ms", executor.isVirtualThreads() ? "Virtual" : "Platform", answered,
+				BENCHMARK_REQUESTS, elapsedMillis));
+		assertEquals(BENCHMARK_REQUESTS, answered);
+		loadBalancer.shutdown();
+		executor.shutdown();
+	}
+
+	private static String await(CountDownLatch latch, String value) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return value;
+	}
+}
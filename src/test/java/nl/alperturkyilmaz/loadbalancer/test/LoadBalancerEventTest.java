@@ -0,0 +1,154 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.event.EventRingBuffer;
+import nl.alperturkyilmaz.loadbalancer.event.LoadBalancerEventType;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+public class LoadBalancerEventTest {
+
+	@Test
+	public void testRequestAndProviderEventsAreDelivered() throws InterruptedException {
+		List<Provider> providers = new ArrayList<>();
+		providers.add(new Provider());
+		providers.add(new Provider());
+
+		Map<LoadBalancerEventType, AtomicInteger> counts = new ConcurrentHashMap<>();
+		CountDownLatch latch = new CountDownLatch(7);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(providers)
+																.withEventListener((event, sequence, endOfBatch) -> {
+																	counts.computeIfAbsent(event.getType(), t -> new AtomicInteger()).incrementAndGet();
+																	latch.countDown();
+																})
+																.build();
+
+		loadBalancer.get();
+		loadBalancer.get();
+		loadBalancer.exclude(providers.get(0));
+		loadBalancer.exclude(providers.get(1));
+		loadBalancer.get();
+		loadBalancer.include(providers.get(0));
+		loadBalancer.include(providers.get(1));
+
+		assertTrue("Events are not delivered", latch.await(5, TimeUnit.SECONDS));
+		assertEquals(2, counts.get(LoadBalancerEventType.REQUEST_COMPLETED).get());
+		assertEquals(2, counts.get(LoadBalancerEventType.PROVIDER_EXCLUDED).get());
+		assertEquals(1, counts.get(LoadBalancerEventType.REQUEST_NO_PROVIDER).get());
+		assertEquals(2, counts.get(LoadBalancerEventType.PROVIDER_INCLUDED).get());
+		assertEquals(0, loadBalancer.getDroppedEventCount());
+		loadBalancer.shutdown();
+	}
+
+	@Test
+	public void testSlowListenerDropsEventsInsteadOfBlocking() throws InterruptedException {
+		EventRingBuffer ringBuffer = new EventRingBuffer(8);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger received = new AtomicInteger();
+		ringBuffer.addListener((event, sequence, endOfBatch) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			received.incrementAndGet();
+		});
+
+		int published = 0;
+		for (int i = 0; i < 100; i++) {
+			if (ringBuffer.publish(LoadBalancerEventType.REQUEST_COMPLETED, null, 0)) {
+				published++;
+			}
+		}
+		release.countDown();
+
+		assertTrue("Buffer must not accept more than its size", published <= ringBuffer.getBufferSize());
+		assertEquals(100 - published, ringBuffer.getDroppedEventCount());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.get() < published && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(published, received.get());
+		ringBuffer.shutdown();
+	}
+
+	@Test
+	public void testMultipleProducersDoNotLoseAcceptedEvents() throws InterruptedException {
+		EventRingBuffer ringBuffer = new EventRingBuffer(1 << 16);
+		AtomicInteger received = new AtomicInteger();
+		ringBuffer.addListener((event, sequence, endOfBatch) -> received.incrementAndGet());
+
+		AtomicInteger published = new AtomicInteger();
+		List<Thread> producers = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread producer = new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					if (ringBuffer.publish(LoadBalancerEventType.REQUEST_COMPLETED, null, 0)) {
+						published.incrementAndGet();
+					}
+				}
+			});
+			producers.add(producer);
+			producer.start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.get() < published.get() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(published.get(), received.get());
+		assertEquals(80000, published.get() + ringBuffer.getDroppedEventCount());
+		ringBuffer.shutdown();
+	}
+
+	@Test
+	public void testIdleListenerParksAndFailuresAreCounted() throws InterruptedException {
+		EventRingBuffer ringBuffer = new EventRingBuffer(8);
+		AtomicReference<Thread> processorThread = new AtomicReference<>();
+		AtomicInteger received = new AtomicInteger();
+		ringBuffer.addListener((event, sequence, endOfBatch) -> {
+			processorThread.set(Thread.currentThread());
+			received.incrementAndGet();
+			throw new IllegalStateException("failing listener");
+		});
+
+		ringBuffer.publish(LoadBalancerEventType.REQUEST_COMPLETED, null, 0);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline && (processorThread.get() == null || processorThread.get().getState() != Thread.State.WAITING)) {
+			Thread.sleep(10);
+		}
+		assertEquals("Idle processor must park", Thread.State.WAITING, processorThread.get().getState());
+
+		// a publisher wakes the parked processor up
+		ringBuffer.publish(LoadBalancerEventType.REQUEST_FAILED, null, 0);
+		while (ringBuffer.getListenerFailureCount() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, received.get());
+		assertEquals(2, ringBuffer.getListenerFailureCount());
+
+		ringBuffer.shutdown();
+		processorThread.get().join(5000);
+		assertFalse(processorThread.get().isAlive());
+	}
+}
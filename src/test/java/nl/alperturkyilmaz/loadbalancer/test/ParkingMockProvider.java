@@ -0,0 +1,28 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * MockProvider variant that blocks with Thread.sleep instead of
+ * synchronized + wait, so a virtual thread running get() unmounts from its
+ * carrier thread instead of pinning it.
+ */
+public class ParkingMockProvider extends MockProvider {
+
+	private final long delayInMillis;
+
+	public ParkingMockProvider(ProviderStatus status, long delayInMillis) {
+		super(status, false);
+		this.delayInMillis = delayInMillis;
+	}
+
+	@Override
+	public String get() {
+		try {
+			TimeUnit.MILLISECONDS.sleep(delayInMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return super.get();
+	}
+}
@@ -0,0 +1,134 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.priority.PriorityLanes;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+
+public class PriorityLanesTest {
+
+	private int admitUntilShed(PriorityLanes lanes, RequestPriority priority, AtomicInteger clusterInFlight, int clusterCapacity) {
+		int admitted = 0;
+		while (lanes.tryAdmit(priority, clusterInFlight, clusterCapacity)) {
+			admitted++;
+		}
+		return admitted;
+	}
+
+	@Test
+	public void testDefaultLanesUseWholeCapacity() {
+		PriorityLanes lanes = new PriorityLanes();
+		AtomicInteger clusterInFlight = new AtomicInteger(0);
+
+		assertEquals(10, admitUntilShed(lanes, RequestPriority.NORMAL, clusterInFlight, 10));
+		assertEquals(10, lanes.getAdmittedCount(RequestPriority.NORMAL));
+		assertEquals(1, lanes.getShedCount(RequestPriority.NORMAL));
+		assertEquals(10, clusterInFlight.get());
+	}
+
+	@Test
+	public void testReservedCapacityIsKeptForCriticalRequests() {
+		PriorityLanes lanes = new PriorityLanes().withLane(RequestPriority.CRITICAL, 0.3, 4);
+		AtomicInteger clusterInFlight = new AtomicInteger(0);
+
+		assertEquals(7, admitUntilShed(lanes, RequestPriority.NORMAL, clusterInFlight, 10));
+		assertEquals(3, admitUntilShed(lanes, RequestPriority.CRITICAL, clusterInFlight, 10));
+		assertEquals(10, clusterInFlight.get());
+	}
+
+	@Test
+	public void testLeastCriticalRequestsAreShedFirst() {
+		PriorityLanes lanes = new PriorityLanes().withLane(RequestPriority.CRITICAL, 0.2, 4).withLane(RequestPriority.NORMAL, 0.2, 2);
+		AtomicInteger clusterInFlight = new AtomicInteger(0);
+
+		assertEquals(6, admitUntilShed(lanes, RequestPriority.BATCH, clusterInFlight, 10));
+		assertEquals(2, admitUntilShed(lanes, RequestPriority.NORMAL, clusterInFlight, 10));
+		assertEquals(2, admitUntilShed(lanes, RequestPriority.CRITICAL, clusterInFlight, 10));
+
+		lanes.release(RequestPriority.BATCH);
+		clusterInFlight.decrementAndGet();
+		assertTrue("Freed capacity must be available to critical requests", lanes.tryAdmit(RequestPriority.CRITICAL, clusterInFlight, 10));
+	}
+
+	@Test
+	public void testReservationIsKeptWhileCriticalRequestsSaturateTheCluster() {
+		PriorityLanes lanes = new PriorityLanes().withLane(RequestPriority.BATCH, 0.2, 1);
+		AtomicInteger clusterInFlight = new AtomicInteger(0);
+
+		assertEquals(8, admitUntilShed(lanes, RequestPriority.CRITICAL, clusterInFlight, 10));
+		assertEquals(2, admitUntilShed(lanes, RequestPriority.BATCH, clusterInFlight, 10));
+		assertEquals(10, clusterInFlight.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testLanesOfLoadBalancerAreFrozen() {
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withPriorityLane(RequestPriority.CRITICAL, 0.3, 4).build();
+		try {
+			assertTrue(loadBalancer.getPriorityLanes().isFrozen());
+			loadBalancer.getPriorityLanes().withLane(RequestPriority.BATCH, 0.1, 1);
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testWeightedFairShareWhileContended() {
+		PriorityLanes lanes = new PriorityLanes().withContentionThreshold(0.5);
+		AtomicInteger clusterInFlight = new AtomicInteger(0);
+
+		assertTrue(lanes.tryAdmit(RequestPriority.NORMAL, clusterInFlight, 12));
+		// BATCH (weight 1) competes with NORMAL (weight 2), its share is 12 * 1/3 = 4
+		// but it is not limited before the cluster is contended at 6
+		assertEquals(5, admitUntilShed(lanes, RequestPriority.BATCH, clusterInFlight, 12));
+		// NORMAL share is 12 * 2/3 = 8, it is only limited by the remaining capacity
+		assertEquals(6, admitUntilShed(lanes, RequestPriority.NORMAL, clusterInFlight, 12));
+		assertEquals(5, lanes.getInFlight(RequestPriority.BATCH));
+		assertEquals(7, lanes.getInFlight(RequestPriority.NORMAL));
+		assertEquals(12, clusterInFlight.get());
+
+		// Above its share, BATCH is shed even after capacity is freed
+		lanes.release(RequestPriority.NORMAL);
+		clusterInFlight.decrementAndGet();
+		assertFalse(lanes.tryAdmit(RequestPriority.BATCH, clusterInFlight, 12));
+		assertTrue(lanes.tryAdmit(RequestPriority.NORMAL, clusterInFlight, 12));
+	}
+
+	@Test
+	public void testZeroCapacityShedsEverything() {
+		PriorityLanes lanes = new PriorityLanes();
+		AtomicInteger clusterInFlight = new AtomicInteger(0);
+		assertFalse(lanes.tryAdmit(RequestPriority.CRITICAL, clusterInFlight, 0));
+		assertTrue(lanes.tryAdmit(RequestPriority.CRITICAL, clusterInFlight, PriorityLanes.UNLIMITED_CAPACITY));
+	}
+
+	@Test
+	public void testRateLimitedRequestsAreCountedAsShed() {
+		List<Provider> providers = new ArrayList<>();
+		providers.add(new MockProvider(MockProvider.ProviderStatus.ALIVE, false));
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(providers)
+																.withClusterRateLimit(1, 1)
+																.build();
+		assertNotNull(loadBalancer.get());
+		assertNull(loadBalancer.get());
+
+		PriorityLanes lanes = loadBalancer.getPriorityLanes();
+		assertEquals(1, lanes.getAdmittedCount(RequestPriority.NORMAL));
+		assertEquals(1, lanes.getShedCount(RequestPriority.NORMAL));
+		assertEquals(0, lanes.getInFlight(RequestPriority.NORMAL));
+		loadBalancer.shutdown();
+	}
+}
@@ -0,0 +1,191 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.DefaultHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.HeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.ImprovedHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.InvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RandomInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.simulation.ArrivalProcess;
+import nl.alperturkyilmaz.loadbalancer.simulation.LatencyDistribution;
+import nl.alperturkyilmaz.loadbalancer.simulation.Simulation;
+import nl.alperturkyilmaz.loadbalancer.simulation.SimulationReport;
+import nl.alperturkyilmaz.loadbalancer.simulation.SyntheticProvider;
+
+public class SimulationTest {
+
+	/*
+	 * 10 single-slot providers with 100ms mean latency at 80% load
+	 */
+	private SimulationReport simulate(InvocationPolicy invocationPolicy, long seed) {
+		return new Simulation.Builder().withLoadBalancer(new LoadBalancer.Builder().withInvocationPolicy(invocationPolicy))
+										.withProviders(10, () -> new SyntheticProvider().withLatency(LatencyDistribution.exponential(Duration.ofMillis(100)))
+																						.withCapacity(1))
+										.withArrivals(ArrivalProcess.poisson(80))
+										.withDuration(Duration.ofHours(1))
+										.withSeed(seed)
+										.build()
+										.run();
+	}
+
+	@Test
+	public void testSimulationIsDeterministic() {
+		SimulationReport first = simulate(new RandomInvocationPolicy(7), 1);
+		SimulationReport second = simulate(new RandomInvocationPolicy(7), 1);
+
+		assertEquals(first.getRequests(), second.getRequests());
+		assertEquals(first.getP50(), second.getP50());
+		assertEquals(first.getP99(), second.getP99());
+		assertEquals(first.getP999(), second.getP999());
+		assertEquals(first.getProviderUtilization(3), second.getProviderUtilization(3), 0);
+	}
+
+	/*
+	 * Simulation with the default Load Balancer, i.e. an unseeded
+	 * RandomInvocationPolicy
+	 */
+	private SimulationReport simulateDefault(long seed) {
+		return new Simulation.Builder().withProviders(10, () -> new SyntheticProvider().withLatency(LatencyDistribution.exponential(Duration.ofMillis(100)))
+																					.withCapacity(1))
+										.withArrivals(ArrivalProcess.poisson(80))
+										.withDuration(Duration.ofMinutes(10))
+										.withSeed(seed)
+										.build()
+										.run();
+	}
+
+	private static void assertSameReport(SimulationReport expected, SimulationReport actual) {
+		assertEquals(expected.toString(), actual.toString());
+		for (int i = 0; i < expected.getProviderCount(); i++) {
+			assertEquals("Requests of provider " + i, expected.getProviderRequests(i), actual.getProviderRequests(i));
+		}
+	}
+
+	@Test
+	public void testDefaultLoadBalancerIsDeterministic() {
+		assertSameReport(simulateDefault(5), simulateDefault(5));
+	}
+
+	@Test
+	public void testSharedLoadBalancerBuilderIsDeterministic() {
+		LoadBalancer.Builder loadBalancerBuilder = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy());
+		List<SimulationReport> reports = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			// 3 Providers and 10 requests, the round robin position must not carry over
+			reports.add(new Simulation.Builder().withLoadBalancer(loadBalancerBuilder)
+												.withProviders(3, () -> new SyntheticProvider().withLatency(LatencyDistribution.fixed(Duration.ofMillis(5))))
+												.withArrivals(ArrivalProcess.poisson(10))
+												.withDuration(Duration.ofSeconds(1))
+												.build()
+												.run());
+		}
+		assertSameReport(reports.get(0), reports.get(1));
+	}
+
+	@Test
+	public void testRoundRobinHasLowerTailLatencyThanRandom() {
+		long start = System.nanoTime();
+		SimulationReport random = simulate(new RandomInvocationPolicy(7), 1);
+		SimulationReport roundRobin = simulate(new RoundRobinInvocationPolicy(), 1);
+		System.out.println("Random:      " + random);
+		System.out.println("Round robin: " + roundRobin);
+		System.out.println(String.format("Simulated 2 hours of traffic in %d ms", Duration.ofNanos(System.nanoTime() - start).toMillis()));
+
+		// about 288k requests per simulated hour
+		assertTrue(random.getRequests() > 280_000);
+		assertEquals(0, random.getRejected());
+		// splitting Poisson traffic randomly keeps the bursts, round robin smooths them
+		assertTrue(roundRobin.getP99().compareTo(random.getP99()) < 0);
+		for (int i = 0; i < roundRobin.getProviderCount(); i++) {
+			assertEquals("Round robin must spread the load evenly", 0.8, roundRobin.getProviderUtilization(i), 0.05);
+		}
+	}
+
+	@Test
+	public void testClusterCapacityRejectsOverload() {
+		SimulationReport report = new Simulation.Builder().withLoadBalancer(new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																										.withClusterCapacity(2))
+															.withProviders(4, () -> new SyntheticProvider().withLatency(LatencyDistribution.fixed(Duration.ofMillis(100))))
+															.withArrivals(ArrivalProcess.poisson(200))
+															.withDuration(Duration.ofMinutes(10))
+															.build()
+															.run();
+		// cluster capacity is 8 requests in 100ms, 80 requests per second
+		assertTrue("Reject rate " + report.getRejectRate(), report.getRejectRate() > 0.5);
+		assertEquals(0, report.getFailed());
+	}
+
+	/*
+	 * 3 healthy providers and one that is down for a minute every 2 minutes
+	 */
+	private SimulationReport simulateFlappingFleet(HeartbeatPolicy heartbeatPolicy) {
+		Simulation.Builder builder = new Simulation.Builder().withLoadBalancer(new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy()))
+																.withProviders(3, () -> new SyntheticProvider().withLatency(LatencyDistribution.fixed(Duration.ofMillis(10))))
+																.withProvider(new SyntheticProvider().withLatency(LatencyDistribution.fixed(Duration.ofMillis(10)))
+																										.withFlapping(Duration.ofMinutes(2), Duration.ofMinutes(1), Duration.ZERO))
+																.withArrivals(ArrivalProcess.poisson(50))
+																.withDuration(Duration.ofHours(1));
+		if (heartbeatPolicy != null) {
+			builder.withHeartbeatPolicy(heartbeatPolicy, Duration.ofSeconds(10));
+		}
+		return builder.build().run();
+	}
+
+	@Test
+	public void testHeartbeatPolicyExcludesFlappingProvider() {
+		SimulationReport withoutHeartbeat = simulateFlappingFleet(null);
+		SimulationReport withHeartbeat = simulateFlappingFleet(new ImprovedHeartbeatPolicy());
+
+		assertTrue(withoutHeartbeat.getFailed() > withHeartbeat.getFailed() * 5);
+		// 30 outages in an hour
+		assertTrue(withHeartbeat.getExclusions() >= 29);
+		assertTrue(withHeartbeat.getInclusions() >= 29);
+	}
+
+	@Test
+	public void testTraceReplay() {
+		long[] trace = new long[1000];
+		for (int i = 0; i < trace.length; i++) {
+			trace[i] = Duration.ofMillis(i * 10L).toNanos();
+		}
+		SimulationReport report = new Simulation.Builder().withProvider(new SyntheticProvider().withLatency(LatencyDistribution.fixed(Duration.ofMillis(5))))
+															.withHeartbeatPolicy(new DefaultHeartbeatPolicy(), Duration.ofSeconds(1))
+															.withArrivals(ArrivalProcess.trace(trace))
+															.withDuration(Duration.ofSeconds(10))
+															.build()
+															.run();
+		assertEquals(1000, report.getRequests());
+		assertEquals(Duration.ofMillis(5), report.getP999());
+		assertEquals(0.5, report.getProviderUtilization(0), 0.01);
+	}
+
+	@Test
+	public void testLoadBalancerBuilderIsNotChanged() {
+		LoadBalancer.Builder loadBalancerBuilder = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy());
+		new Simulation.Builder().withLoadBalancer(loadBalancerBuilder)
+								.withProviders(30, () -> new SyntheticProvider())
+								.withDuration(Duration.ofSeconds(10))
+								.build()
+								.run();
+
+		LoadBalancer loadBalancer = loadBalancerBuilder.build();
+		assertEquals(LoadBalancer.DEFAULT_MAXIMUM_REGISTERED_PROVIDERS, loadBalancer.getMaximumRegisteredProviders());
+		assertTrue("Simulated providers must not leak into the builder", loadBalancer.getRegisteredProviders().isEmpty());
+		loadBalancer.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLoadBalancerHeartbeatPolicyIsRejected() {
+		new Simulation.Builder().withLoadBalancer(new LoadBalancer.Builder().withHeartbeatPolicy(new DefaultHeartbeatPolicy()));
+	}
+}
@@ -0,0 +1,264 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.execution.InvocationExecutor;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+import nl.alperturkyilmaz.loadbalancer.stream.StreamingDispatcher;
+
+public class StreamingDispatcherTest {
+
+	private static final int ECHO_REQUESTS = 8;
+
+	/*
+	 * Publishes count integers, honoring the demand and recording the highest
+	 * number of requested but not yet published elements
+	 */
+	static class RangePublisher implements Publisher<Integer> {
+		final int count;
+		final AtomicLong maximumOutstanding = new AtomicLong(0);
+
+		RangePublisher(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public void subscribe(Subscriber<? super Integer> subscriber) {
+			subscriber.onSubscribe(new Subscription() {
+				final AtomicLong requested = new AtomicLong(0);
+				final AtomicInteger wip = new AtomicInteger(0);
+				int index = 0;
+				volatile boolean cancelled;
+
+				@Override
+				public void request(long n) {
+					maximumOutstanding.accumulateAndGet(requested.addAndGet(n), Math::max);
+					if (wip.getAndIncrement() != 0) {
+						return;
+					}
+					do {
+						while (!cancelled && requested.get() > 0 && index < count) {
+							requested.decrementAndGet();
+							subscriber.onNext(index++);
+						}
+						if (!cancelled && index == count) {
+							cancelled = true;
+							subscriber.onComplete();
+						}
+					} while (wip.decrementAndGet() != 0);
+				}
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+				}
+			});
+		}
+	}
+
+	static class CollectingSubscriber implements Subscriber<String> {
+		final List<String> responses = new ArrayList<>();
+		final CountDownLatch completed = new CountDownLatch(1);
+		volatile Throwable error;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public synchronized void onNext(String response) {
+			responses.add(response);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			completed.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+	}
+
+	/*
+	 * Slow Provider recording the highest number of concurrent get() calls and
+	 * answering with an increasing call number
+	 */
+	static class CountingProvider extends Provider {
+		static final AtomicInteger calls = new AtomicInteger(0);
+		static final AtomicInteger concurrent = new AtomicInteger(0);
+		static final AtomicInteger maximumConcurrent = new AtomicInteger(0);
+
+		@Override
+		public String get() {
+			maximumConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+			try {
+				TimeUnit.MILLISECONDS.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				concurrent.decrementAndGet();
+			}
+			return String.format("%08d", calls.getAndIncrement());
+		}
+	}
+
+	private List<Provider> generateProviders(int size) {
+		List<Provider> providers = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			providers.add(new CountingProvider());
+		}
+		return providers;
+	}
+
+	@Test
+	public void testDemandIsBoundedByClusterCapacity() throws InterruptedException {
+		CountingProvider.maximumConcurrent.set(0);
+		int capacity = 2 * 2;
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(generateProviders(2))
+																.withClusterCapacity(2)
+																.build();
+		InvocationExecutor executor = InvocationExecutor.platformThreads(16, InvocationExecutor.UNLIMITED_IN_FLIGHT);
+		StreamingDispatcher dispatcher = new StreamingDispatcher.Builder().withLoadBalancer(loadBalancer)
+																			.withInvocationExecutor(executor)
+																			.unordered()
+																			.build();
+
+		RangePublisher requests = new RangePublisher(100);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		dispatcher.dispatch(requests).subscribe(subscriber);
+
+		assertTrue("Stream did not complete", subscriber.completed.await(10, TimeUnit.SECONDS));
+		assertNull(subscriber.error);
+		assertEquals(100, subscriber.responses.size());
+		assertTrue("Upstream demand exceeded the cluster capacity", requests.maximumOutstanding.get() <= capacity);
+		assertTrue("Providers received more requests than the cluster capacity", CountingProvider.maximumConcurrent.get() <= capacity);
+		loadBalancer.shutdown();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testOrderedResponses() throws InterruptedException {
+		List<String> responses = dispatchReversedLatencies(true);
+		assertEquals(requestOrder(ECHO_REQUESTS), responses);
+	}
+
+	@Test
+	public void testUnorderedResponses() throws InterruptedException {
+		List<String> responses = dispatchReversedLatencies(false);
+		assertNotEquals("Responses of the slower early requests must arrive later", requestOrder(ECHO_REQUESTS), responses);
+		List<String> sorted = new ArrayList<>(responses);
+		sorted.sort(Comparator.comparing(Integer::valueOf));
+		assertEquals(requestOrder(ECHO_REQUESTS), sorted);
+	}
+
+	/*
+	 * Answers every request with the request itself, earlier requests take
+	 * longer so the responses complete in reverse order
+	 */
+	static class EchoProvider extends Provider {
+		@Override
+		public String get(Object request) {
+			try {
+				TimeUnit.MILLISECONDS.sleep((ECHO_REQUESTS - (Integer) request) * 40L);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return String.valueOf(request);
+		}
+	}
+
+	private List<String> requestOrder(int count) {
+		List<String> requests = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			requests.add(String.valueOf(i));
+		}
+		return requests;
+	}
+
+	/*
+	 * Dispatches all requests concurrently as CRITICAL to Providers echoing the
+	 * request
+	 */
+	private List<String> dispatchReversedLatencies(boolean ordered) throws InterruptedException {
+		List<Provider> providers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			providers.add(new EchoProvider());
+		}
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(providers)
+																.withClusterCapacity(2)
+																.build();
+		InvocationExecutor executor = InvocationExecutor.platformThreads(ECHO_REQUESTS, InvocationExecutor.UNLIMITED_IN_FLIGHT);
+		StreamingDispatcher.Builder builder = new StreamingDispatcher.Builder().withLoadBalancer(loadBalancer)
+																				.withInvocationExecutor(executor)
+																				.withMaximumBuffered(ECHO_REQUESTS)
+																				.withPriority(RequestPriority.CRITICAL);
+		StreamingDispatcher dispatcher = ordered ? builder.ordered().build() : builder.unordered().build();
+
+		RangePublisher requests = new RangePublisher(ECHO_REQUESTS);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		dispatcher.dispatch(requests).subscribe(subscriber);
+
+		assertTrue("Stream did not complete", subscriber.completed.await(10, TimeUnit.SECONDS));
+		assertNull(subscriber.error);
+		assertEquals(ECHO_REQUESTS, loadBalancer.getPriorityLanes().getAdmittedCount(RequestPriority.CRITICAL));
+		assertEquals(0, loadBalancer.getPriorityLanes().getAdmittedCount(RequestPriority.NORMAL));
+		assertEquals("Subscription still active after completion", 0, dispatcher.getSubscriptionCount());
+		loadBalancer.shutdown();
+		executor.shutdown();
+		return subscriber.responses;
+	}
+
+	@Test
+	public void testNothingIsPulledWithoutAvailableProviders() throws InterruptedException {
+		List<Provider> providers = generateProviders(2);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(providers)
+																.build();
+		providers.forEach(loadBalancer::exclude);
+		InvocationExecutor executor = InvocationExecutor.platformThreads(4, InvocationExecutor.UNLIMITED_IN_FLIGHT);
+		StreamingDispatcher dispatcher = new StreamingDispatcher.Builder().withLoadBalancer(loadBalancer)
+																			.withInvocationExecutor(executor)
+																			.unordered()
+																			.build();
+
+		RangePublisher requests = new RangePublisher(20);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		dispatcher.dispatch(requests).subscribe(subscriber);
+
+		assertFalse("Stream completed without providers", subscriber.completed.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(0, requests.maximumOutstanding.get());
+
+		providers.forEach(loadBalancer::include);
+		assertTrue("Stream did not complete after inclusion", subscriber.completed.await(10, TimeUnit.SECONDS));
+		assertNull(subscriber.error);
+		assertEquals(20, subscriber.responses.size());
+		loadBalancer.shutdown();
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,233 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.DefaultHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.heartbeat.policy.ImprovedHeartbeatPolicy;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.priority.RequestPriority;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+import nl.alperturkyilmaz.loadbalancer.subset.Subsetting;
+
+public class SubsettingTest {
+
+	private static final AtomicInteger checks = new AtomicInteger();
+
+	private static class CountingProvider extends Provider {
+		private volatile boolean healthy = true;
+
+		@Override
+		public boolean check() {
+			checks.incrementAndGet();
+			return healthy;
+		}
+	}
+
+	private List<Provider> providers(int count) {
+		List<Provider> providers = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			providers.add(new CountingProvider());
+		}
+		return providers;
+	}
+
+	private LoadBalancer client(int clientId, List<Provider> providers) {
+		return new LoadBalancer.Builder().maximumAllowedProviders(1000).withSubsetting(10, clientId).withProviders(providers).build();
+	}
+
+	@Test
+	public void testSubsetsAreBalanced() {
+		List<Provider> providers = providers(100);
+		Map<Provider, Integer> clientsPerProvider = new HashMap<>();
+		// 10 subsets per round, 5 rounds
+		for (int clientId = 0; clientId < 50; clientId++) {
+			List<Provider> subset = new Subsetting(10, clientId).select(providers, Collections.emptySet());
+			assertEquals(10, subset.size());
+			assertEquals("Subset must be distinct", 10, new HashSet<>(subset).size());
+			for (Provider provider : subset) {
+				clientsPerProvider.merge(provider, 1, Integer::sum);
+			}
+		}
+		assertEquals(100, clientsPerProvider.size());
+		for (int clients : clientsPerProvider.values()) {
+			assertEquals(5, clients);
+		}
+	}
+
+	@Test
+	public void testSubsetIsDeterministic() {
+		List<Provider> providers = providers(100);
+		List<Provider> shuffled = new ArrayList<>(providers);
+		Collections.shuffle(shuffled);
+		assertEquals(new Subsetting(10, 7).select(providers, Collections.emptySet()), new Subsetting(10, 7).select(shuffled, Collections.emptySet()));
+	}
+
+	@Test
+	public void testRegistrationAndRemovalChurnAtMostOneProvider() {
+		List<Provider> providers = providers(100);
+		Provider added = new CountingProvider();
+		for (int clientId = 0; clientId < 30; clientId++) {
+			LoadBalancer loadBalancer = client(clientId, providers);
+			try {
+				Set<Provider> before = new HashSet<>(loadBalancer.getProviders());
+				loadBalancer.register(Collections.singletonList(added));
+				Set<Provider> after = new HashSet<>(loadBalancer.getProviders());
+				assertEquals(10, after.size());
+				after.removeAll(before);
+				assertTrue("Client " + clientId + " swapped " + after.size(), after.size() <= 1);
+
+				Provider removed = loadBalancer.getProviders().iterator().next();
+				before = new HashSet<>(loadBalancer.getProviders());
+				assertTrue(loadBalancer.unregister(removed));
+				assertFalse(loadBalancer.unregister(removed));
+				after = new HashSet<>(loadBalancer.getProviders());
+				assertFalse(after.contains(removed));
+				assertEquals(10, after.size());
+				after.removeAll(before);
+				assertEquals(1, after.size());
+			} finally {
+				loadBalancer.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testSubsetCountChangeReassignsBalancedSubsets() {
+		List<Provider> providers = providers(100);
+		Map<Integer, Set<Provider>> subsets = new HashMap<>();
+		for (int clientId = 0; clientId < 30; clientId++) {
+			subsets.put(clientId, new HashSet<>(new Subsetting(10, clientId).select(providers, Collections.emptySet())));
+		}
+		// 100..109 Providers keep 10 subsets, the 110th one makes 11 subsets
+		for (int size = 101; size <= 110; size++) {
+			providers.add(new CountingProvider());
+			for (int clientId = 0; clientId < 30; clientId++) {
+				Set<Provider> subset = new HashSet<>(new Subsetting(10, clientId).select(providers, Collections.emptySet()));
+				assertEquals(10, subset.size());
+				if (size < 110) {
+					Set<Provider> swapped = new HashSet<>(subset);
+					swapped.removeAll(subsets.get(clientId));
+					assertTrue("Client " + clientId + " swapped " + swapped.size() + " at " + size, swapped.size() <= 1);
+				}
+				subsets.put(clientId, subset);
+			}
+		}
+
+		// the reassigned subsets are balanced again, 11 subsets per round, 10 rounds
+		Map<Provider, Integer> clientsPerProvider = new HashMap<>();
+		for (int clientId = 0; clientId < 110; clientId++) {
+			for (Provider provider : new Subsetting(10, clientId).select(providers, Collections.emptySet())) {
+				clientsPerProvider.merge(provider, 1, Integer::sum);
+			}
+		}
+		assertEquals(110, clientsPerProvider.size());
+		for (int clients : clientsPerProvider.values()) {
+			assertEquals(10, clients);
+		}
+	}
+
+	@Test
+	public void testExcludedProviderIsReplaced() {
+		LoadBalancer loadBalancer = client(3, providers(100));
+		try {
+			List<Provider> subset = new ArrayList<>(loadBalancer.getProviders());
+			Provider excluded = subset.get(4);
+			assertTrue(loadBalancer.exclude(excluded));
+			List<Provider> withReplacement = new ArrayList<>(loadBalancer.getProviders());
+			// the excluded Provider stays in the subset for its heartbeats
+			assertEquals(11, withReplacement.size());
+			assertTrue(withReplacement.containsAll(subset));
+
+			Set<String> served = new HashSet<>();
+			for (int i = 0; i < 100; i++) {
+				served.add(loadBalancer.get());
+			}
+			assertEquals(10, served.size());
+			assertFalse(served.contains(excluded.getId()));
+
+			assertTrue(loadBalancer.include(excluded));
+			assertEquals(subset, new ArrayList<>(loadBalancer.getProviders()));
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailedReplacementIsStillChecked() {
+		// 105 Providers keep 10 subsets when one is unregistered
+		LoadBalancer loadBalancer = client(3, providers(105));
+		ImprovedHeartbeatPolicy policy = new ImprovedHeartbeatPolicy();
+		try {
+			List<Provider> subset = new ArrayList<>(loadBalancer.getProviders());
+			assertTrue(loadBalancer.exclude(subset.get(4)));
+			CountingProvider replacement = (CountingProvider) new ArrayList<>(loadBalancer.getProviders()).get(10);
+			replacement.healthy = false;
+			policy.apply(loadBalancer);
+			// 10 members and a new replacement, followed by the failed replacement
+			assertEquals("Failed replacement is still checked", 11, new ArrayList<>(loadBalancer.getProviders()).indexOf(replacement));
+
+			replacement.healthy = true;
+			for (int i = 0; i <= ImprovedHeartbeatPolicy.DEFAULT_CONSECUTIVE_HEARTBEAT_THRESHOLD; i++) {
+				policy.apply(loadBalancer);
+			}
+			// the replacement follows the subset in the ordering, removing a member rotates it in
+			assertTrue(loadBalancer.unregister(subset.get(0)));
+			assertEquals(replacement, new ArrayList<>(loadBalancer.getProviders()).get(9));
+			assertTrue("Recovered replacement is available", loadBalancer.exclude(replacement));
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testHeartbeatScalesWithSubsetSize() {
+		LoadBalancer loadBalancer = client(0, providers(500));
+		try {
+			assertEquals(500, loadBalancer.getRegisteredProviders().size());
+			checks.set(0);
+			new DefaultHeartbeatPolicy().apply(loadBalancer);
+			assertEquals(10, checks.get());
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+
+	@Test
+	public void testUnregisteredSlotIsReused() {
+		List<Provider> providers = providers(3);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().maximumAllowedProviders(3).withInvocationPolicy(new RoundRobinInvocationPolicy()).withProviders(providers).build();
+		try {
+			Provider busy = loadBalancer.select(RequestPriority.NORMAL);
+			assertTrue(loadBalancer.unregister(busy));
+			Provider replacement = new CountingProvider();
+			loadBalancer.register(Collections.singletonList(replacement));
+			assertEquals(3, loadBalancer.getProviders().size());
+			assertEquals(0, loadBalancer.getInFlight(replacement));
+			// completing the request of the unregistered Provider must not touch its old slot
+			loadBalancer.complete(RequestPriority.NORMAL, busy, 1_000, true);
+			assertEquals(0, loadBalancer.getInFlight(replacement));
+			Set<String> served = new HashSet<>();
+			for (int i = 0; i < 3; i++) {
+				served.add(loadBalancer.get());
+			}
+			assertTrue(served.contains(replacement.getId()));
+			assertFalse(served.contains(busy.getId()));
+		} finally {
+			loadBalancer.shutdown();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package nl.alperturkyilmaz.loadbalancer.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import nl.alperturkyilmaz.loadbalancer.LoadBalancer;
+import nl.alperturkyilmaz.loadbalancer.invocation.policy.RoundRobinInvocationPolicy;
+import nl.alperturkyilmaz.loadbalancer.provider.Provider;
+import nl.alperturkyilmaz.loadbalancer.ratelimit.TokenBucket;
+
+public class TokenBucketTest {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testBurstAndLazyRefill() {
+		TokenBucket bucket = new TokenBucket(100, 5);
+		long now = 1_000 * MILLIS;
+		for (int i = 0; i < 5; i++) {
+			assertTrue(bucket.tryAcquire(now));
+		}
+		assertFalse("Bucket must be empty after the burst", bucket.tryAcquire(now));
+		assertFalse(bucket.tryAcquire(now + 9 * MILLIS));
+		assertTrue("One token every 10ms", bucket.tryAcquire(now + 10 * MILLIS));
+		assertFalse(bucket.tryAcquire(now + 10 * MILLIS));
+
+		// refill never exceeds the burst
+		int acquired = 0;
+		while (bucket.tryAcquire(now + 10_000 * MILLIS)) {
+			acquired++;
+		}
+		assertEquals(5, acquired);
+	}
+
+	@Test
+	public void testRefund() {
+		TokenBucket bucket = new TokenBucket(100, 2);
+		long now = 1_000 * MILLIS;
+		assertTrue(bucket.tryAcquire(now));
+		assertTrue(bucket.tryAcquire(now));
+		assertFalse(bucket.tryAcquire(now));
+		bucket.refund();
+		assertTrue("Refunded token can be taken again", bucket.tryAcquire(now));
+		assertFalse(bucket.tryAcquire(now));
+	}
+
+	@Test
+	public void testRateCanBeChangedAtRuntime() {
+		TokenBucket bucket = new TokenBucket(100, 1);
+		long now = 0;
+		assertTrue(bucket.tryAcquire(now));
+		bucket.setRate(1000, 1);
+		assertTrue("New rate refills a token every 1ms", bucket.tryAcquire(now + 10 * MILLIS));
+		assertTrue(bucket.tryAcquire(now + 11 * MILLIS));
+		assertEquals(1000, bucket.getPermitsPerSecond(), 0);
+	}
+
+	@Test
+	public void testAccuracyUnderContention() throws InterruptedException {
+		int threads = 64;
+		double permitsPerSecond = 10_000;
+		int burst = 100;
+		long durationNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+		TokenBucket bucket = new TokenBucket(permitsPerSecond, burst);
+		AtomicLong acquired = new AtomicLong(0);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+		long[] window = new long[2];
+		for (int t = 0; t < threads; t++) {
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				long now;
+				while ((now = System.nanoTime()) < window[1]) {
+					if (bucket.tryAcquire(now)) {
+						acquired.incrementAndGet();
+					}
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		window[0] = System.nanoTime();
+		window[1] = window[0] + durationNanos;
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		long expected = burst + (long) (permitsPerSecond * durationNanos / 1e9);
+		assertTrue("Acquired " + acquired.get() + " permits, expected at most " + (expected + 1), acquired.get() <= expected + 1);
+		assertTrue("Acquired " + acquired.get() + " permits, expected about " + expected, acquired.get() >= expected * 0.98);
+	}
+
+	@Test
+	public void testRateLimitedProviderIsSkipped() {
+		List<Provider> providers = new ArrayList<>();
+		providers.add(new Provider());
+		providers.add(new Provider());
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withInvocationPolicy(new RoundRobinInvocationPolicy())
+																.withProviders(providers)
+																.build();
+		loadBalancer.setProviderRateLimit(providers.get(0), 0.001, 1);
+
+		assertEquals(providers.get(0).getId(), loadBalancer.get());
+		assertEquals(providers.get(1).getId(), loadBalancer.get());
+		assertEquals("Rate limited provider must be skipped", providers.get(1).getId(), loadBalancer.get());
+
+		loadBalancer.setProviderRateLimit(providers.get(1), 0.001, 1);
+		loadBalancer.get();
+		assertNull("All providers are rate limited", loadBalancer.get());
+
+		loadBalancer.setProviderRateLimit(providers.get(0), 0, 0);
+		assertEquals(providers.get(0).getId(), loadBalancer.get());
+		loadBalancer.shutdown();
+	}
+
+	@Test
+	public void testClusterTokenIsRefundedWithoutProvider() {
+		List<Provider> providers = new ArrayList<>();
+		providers.add(new Provider());
+		AtomicLong now = new AtomicLong(0);
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withProviders(providers)
+																.withClusterRateLimit(0.001, 2)
+																.withProviderRateLimit(0.001, 1)
+																.withNanoClock(now::get)
+																.build();
+		loadBalancer.exclude(providers.get(0));
+		for (int i = 0; i < 3; i++) {
+			assertNull("No Provider", loadBalancer.get());
+		}
+		loadBalancer.include(providers.get(0));
+		assertEquals("Cluster tokens of unserved requests must be refunded", providers.get(0).getId(), loadBalancer.get());
+		assertNull("Provider is out of permits", loadBalancer.get());
+
+		loadBalancer.setProviderRateLimit(providers.get(0), 0, 0);
+		assertEquals(providers.get(0).getId(), loadBalancer.get());
+		assertNull("Cluster burst is used", loadBalancer.get());
+		loadBalancer.shutdown();
+	}
+
+	@Test
+	public void testClusterRateLimit() {
+		List<Provider> providers = new ArrayList<>();
+		providers.add(new Provider());
+		LoadBalancer loadBalancer = new LoadBalancer.Builder().withProviders(providers)
+																.withClusterRateLimit(0.001, 2)
+																.build();
+		assertEquals(providers.get(0).getId(), loadBalancer.get());
+		assertEquals(providers.get(0).getId(), loadBalancer.get());
+		assertNull(loadBalancer.get());
+		loadBalancer.shutdown();
+	}
+}